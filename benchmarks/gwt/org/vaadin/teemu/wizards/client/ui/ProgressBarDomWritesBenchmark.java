@@ -0,0 +1,163 @@
+package org.vaadin.teemu.wizards.client.ui;
+
+import java.util.ArrayList;
+
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.user.client.ui.RootPanel;
+
+/**
+ * Counts the DOM writes and caption measurements done by
+ * {@link VWizardProgressBar#render()} for 10, 100 and 1000 steps, when nothing
+ * has changed, when moving to the next step, when steps are removed or
+ * renamed and when only some of the steps are rendered. Run it like any other
+ * {@link GWTTestCase}, with the add-on sources and this directory on the
+ * classpath.
+ */
+public class ProgressBarDomWritesBenchmark extends GWTTestCase {
+
+    private static final int[] STEP_COUNTS = { 10, 100, 1000 };
+
+    @Override
+    public String getModuleName() {
+        return "org.vaadin.teemu.wizards.ProgressBarBenchmark";
+    }
+
+    private VWizardProgressBar createProgressBar(int stepCount) {
+        return createProgressBar(stepCount, true, 0);
+    }
+
+    private VWizardProgressBar createProgressBar(int stepCount,
+            boolean horizontal, int visibleStepCount) {
+        VWizardProgressBar progressBar = new VWizardProgressBar();
+        progressBar.set_isHorizontal(horizontal);
+        progressBar.set_visibleStepCount(visibleStepCount);
+        progressBar.set_showProgressIndicatorBar(true);
+        progressBar.set_linkmode(ProgressBarLinkMode.PREVIOUS);
+        progressBar.set_currentIndex(0);
+        progressBar.set_completedSteps(0, "");
+        progressBar.set_captions(createCaptions(stepCount));
+        RootPanel.get().add(progressBar);
+        progressBar.render();
+        // measures the captions written by the first rendering
+        progressBar.render();
+        return progressBar;
+    }
+
+    private ArrayList<String> createCaptions(int stepCount) {
+        ArrayList<String> captions = new ArrayList<String>(stepCount);
+        for (int i = 0; i < stepCount; i++) {
+            captions.add("Step " + i);
+        }
+        return captions;
+    }
+
+    /**
+     * Runs {@link VWizardProgressBar#render()} and returns the number of DOM
+     * writes it did.
+     */
+    private int measureUpdate(VWizardProgressBar progressBar, String name,
+            int stepCount) {
+        int writesBefore = progressBar.getDomWriteCount();
+        int measuresBefore = progressBar.getCaptionMeasureCount();
+        double start = System.currentTimeMillis();
+        progressBar.render();
+        double elapsed = System.currentTimeMillis() - start;
+        int writes = progressBar.getDomWriteCount() - writesBefore;
+        int measures = progressBar.getCaptionMeasureCount() - measuresBefore;
+        System.out.println(name + ", " + stepCount + " steps: " + writes
+                + " DOM writes, " + measures + " caption measurements, "
+                + elapsed + " ms");
+        return writes;
+    }
+
+    @Override
+    protected void gwtTearDown() throws Exception {
+        RootPanel.get().clear();
+    }
+
+    public void testUpdate_nothingChanged_noWrites() {
+        for (int stepCount : STEP_COUNTS) {
+            VWizardProgressBar progressBar = createProgressBar(stepCount);
+
+            assertEquals(0,
+                    measureUpdate(progressBar, "unchanged", stepCount));
+        }
+    }
+
+    public void testUpdate_nextStep_writesIndependentOfStepCount() {
+        for (int stepCount : STEP_COUNTS) {
+            VWizardProgressBar progressBar = createProgressBar(stepCount);
+
+            progressBar.set_currentIndex(1);
+            progressBar.set_completedSteps(1, "");
+            int writes = measureUpdate(progressBar, "next", stepCount);
+
+            // completed, link and current of the two steps plus the bar
+            assertTrue(writes <= 5);
+        }
+    }
+
+    public void testUpdate_stepsRemoved_itemsRemoved() {
+        for (int stepCount : STEP_COUNTS) {
+            VWizardProgressBar progressBar = createProgressBar(stepCount);
+
+            progressBar.set_captions(createCaptions(stepCount / 2));
+            measureUpdate(progressBar, "half removed", stepCount);
+
+            assertEquals(0,
+                    measureUpdate(progressBar, "unchanged", stepCount / 2));
+        }
+    }
+
+    public void testUpdate_verticalCaptionRenamed_onlyRenamedMeasured() {
+        for (int stepCount : STEP_COUNTS) {
+            VWizardProgressBar progressBar = createProgressBar(stepCount,
+                    false, 0);
+            int measuresBefore = progressBar.getCaptionMeasureCount();
+
+            measureUpdate(progressBar, "vertical unchanged", stepCount);
+            assertEquals(measuresBefore, progressBar.getCaptionMeasureCount());
+
+            ArrayList<String> captions = createCaptions(stepCount);
+            captions.set(stepCount / 2, "Renamed step");
+            progressBar.set_captions(captions);
+            measureUpdate(progressBar, "vertical renamed", stepCount);
+            // nothing is read after the caption has been written
+            assertEquals(measuresBefore, progressBar.getCaptionMeasureCount());
+            measureUpdate(progressBar, "vertical remeasured", stepCount);
+            assertEquals(measuresBefore + 1,
+                    progressBar.getCaptionMeasureCount());
+        }
+    }
+
+    public void testUpdate_visibleStepsLimited_writesIndependentOfStepCount() {
+        int initialWrites = -1;
+        int nextWrites = -1;
+        for (int stepCount : STEP_COUNTS) {
+            if (stepCount < 100) {
+                continue;
+            }
+            VWizardProgressBar progressBar = createProgressBar(stepCount,
+                    true, 7);
+            int writes = progressBar.getDomWriteCount();
+
+            progressBar.set_currentIndex(stepCount / 2);
+            progressBar.set_completedSteps(stepCount / 2, "");
+            int jumpWrites = measureUpdate(progressBar, "windowed jump",
+                    stepCount);
+            progressBar.set_currentIndex(stepCount / 2 + 1);
+            progressBar.set_completedSteps(stepCount / 2 + 1, "");
+            int writesAfterNext = measureUpdate(progressBar, "windowed next",
+                    stepCount);
+
+            assertTrue(jumpWrites < 50);
+            if (initialWrites >= 0) {
+                assertEquals(initialWrites, writes);
+                assertEquals(nextWrites, writesAfterNext);
+            }
+            initialWrites = writes;
+            nextWrites = writesAfterNext;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the add-on and writes the results as JSON so that
+ * runs of different versions can be compared.
+ * 
+ * <p>
+ * Usage: {@code BenchmarkRunner [output directory] [benchmark regexp]}. The
+ * results are written to {@code jmh-<timestamp>.json} in the output directory,
+ * {@code results} by default. All benchmarks are run if no regular expression
+ * is given.
+ * </p>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        File directory = new File(args.length > 0 ? args[0] : "results");
+        String include = args.length > 1 ? args[1]
+                : BenchmarkRunner.class.getPackage().getName() + ".*Benchmark";
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory "
+                    + directory);
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss")
+                .format(new Date());
+        File result = new File(directory, "jmh-" + timestamp + ".json");
+
+        Options options = new OptionsBuilder().include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath()).build();
+        new Runner(options).run();
+        System.out.println("Results written to " + result);
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Label;
+
+/**
+ * Step with a fixed content that always allows moving on, so that the
+ * benchmarks measure the Wizard itself.
+ */
+class BenchmarkStep implements WizardStep {
+
+    private final String caption;
+    private final Component content;
+
+    BenchmarkStep(int number) {
+        caption = "Step " + number;
+        content = new Label(caption);
+    }
+
+    /**
+     * Creates a Wizard with the given number of steps and identifiers
+     * {@code step-0} to {@code step-(stepCount - 1)}.
+     */
+    static Wizard createWizard(int stepCount) {
+        Wizard wizard = new Wizard();
+        Map<String, WizardStep> steps = new LinkedHashMap<String, WizardStep>();
+        for (int i = 0; i < stepCount; i++) {
+            steps.put(id(i), new BenchmarkStep(i));
+        }
+        wizard.addSteps(steps);
+        return wizard;
+    }
+
+    static String id(int index) {
+        return "step-" + index;
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public Component getContent() {
+        return content;
+    }
+
+    public boolean onAdvance() {
+        return true;
+    }
+
+    public boolean onBack() {
+        return true;
+    }
+
+    public void onActivate() {
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.vaadin.teemu.wizards;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+
+import com.vaadin.event.EventRouter;
+
+/**
+ * Compares the cost of notifying {@link WizardProgressListener}s through the
+ * typed listener registry of {@link Wizard} with the reflection based
+ * {@link EventRouter} used by the component event mechanism, and the cost of
+ * activation events as part of navigation. Both dispatch benchmarks fire the
+ * same event directly, so they measure only the dispatch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerDispatchBenchmark {
+
+    private static class CountingListener implements WizardProgressListener {
+
+        private final Blackhole blackhole;
+
+        CountingListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        public void activeStepChanged(WizardStepActivationEvent event) {
+            blackhole.consume(event);
+        }
+
+        public void stepSetChanged(WizardStepSetChangedEvent event) {
+            blackhole.consume(event);
+        }
+
+        public void wizardCompleted(WizardCompletedEvent event) {
+            blackhole.consume(event);
+        }
+
+        public void wizardCancelled(WizardCancelledEvent event) {
+            blackhole.consume(event);
+        }
+    }
+
+    /**
+     * Listeners registered both to the typed registry and to an
+     * {@link EventRouter}.
+     */
+    @State(Scope.Thread)
+    public static class Dispatch {
+
+        @Param({ "0", "1", "4" })
+        public int listenerCount;
+
+        private WizardListenerRegistry registry;
+        private EventRouter router;
+        private WizardCancelledEvent event;
+
+        @Setup
+        public void setUp(Blackhole blackhole) throws NoSuchMethodException {
+            registry = new WizardListenerRegistry();
+            router = new EventRouter();
+            event = new WizardCancelledEvent(new Wizard());
+            Method cancelled = WizardProgressListener.class
+                    .getDeclaredMethod("wizardCancelled",
+                            WizardCancelledEvent.class);
+            for (int i = 0; i < listenerCount; i++) {
+                CountingListener listener = new CountingListener(blackhole);
+                registry.add(listener, 0, false);
+                router.addListener(WizardCancelledEvent.class, listener,
+                        cancelled);
+            }
+        }
+    }
+
+    /**
+     * Wizard for the navigation benchmark, whose cost also depends on the
+     * number of steps.
+     */
+    @State(Scope.Thread)
+    public static class Navigation {
+
+        @Param({ "10", "100", "1000", "10000" })
+        public int stepCount;
+
+        @Param({ "0", "1", "4" })
+        public int listenerCount;
+
+        private Wizard wizard;
+
+        @Setup
+        public void setUp(Blackhole blackhole) {
+            wizard = BenchmarkStep.createWizard(stepCount);
+            // leave only the listeners of the benchmark
+            wizard.removeListener((WizardProgressListener) wizard
+                    .getProgressBar());
+            for (int i = 0; i < listenerCount; i++) {
+                wizard.addListener(new CountingListener(blackhole));
+            }
+        }
+    }
+
+    @Benchmark
+    public void typedRegistry(Dispatch dispatch) {
+        dispatch.registry.wizardCancelled(dispatch.event);
+    }
+
+    @Benchmark
+    public void eventRouter(Dispatch dispatch) {
+        dispatch.router.fireEvent(dispatch.event);
+    }
+
+    @Benchmark
+    public void stepActivation(Navigation navigation) {
+        // activation events carry the step and are sent on every navigation
+        navigation.wizard.next();
+        navigation.wizard.back();
+    }
+
+}
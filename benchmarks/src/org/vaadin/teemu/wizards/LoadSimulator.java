@@ -0,0 +1,323 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.vaadin.teemu.wizards.client.ui.WizardProgressBarServerRpc;
+
+import com.vaadin.server.ClientMethodInvocation;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+
+/**
+ * Drives a number of simulated sessions, each with its own UI and
+ * {@link Wizard}, through a navigation script without a browser or a servlet
+ * container and reports the throughput, the latency percentiles of the
+ * actions and the heap retained per session.
+ * 
+ * <p>
+ * The actions go through the same server side entry points as real requests:
+ * the buttons, the {@link WizardProgressBar} RPC and URI fragment changes of
+ * the page. Every action is run while holding the lock of its session and is
+ * followed by {@link WizardProgressBar#beforeClientResponse(boolean)} and by
+ * taking the pending client RPC calls, like a request producing a response.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * {@code LoadSimulator [sessions] [threads] [steps] [iterations] [script]},
+ * where the script is a comma separated list of {@code next}, {@code back},
+ * {@code finish}, {@code click:<index>} and {@code fragment:<index>} actions.
+ * The index can also be {@code last}.
+ * </p>
+ */
+public class LoadSimulator {
+
+    static final String DEFAULT_SCRIPT = "next,next,back,click:last,fragment:1,finish,fragment:0";
+
+    private final int sessionCount;
+    private final int threadCount;
+    private final int stepCount;
+    private final int iterations;
+    private final String[] script;
+
+    /**
+     * UI of a simulated session.
+     */
+    private static class SimulatedUI extends UI {
+
+        @Override
+        protected void init(VaadinRequest request) {
+            // never initialized by a request
+        }
+    }
+
+    /**
+     * State of one simulated session. The lock stands for the session lock
+     * held by the framework while a request is handled.
+     */
+    private class Session {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final UI ui = new SimulatedUI();
+        private final Wizard wizard;
+        private final WizardProgressBar progressBar;
+        private final WizardProgressBarServerRpc progressBarRpc;
+        // revision of the steps last sent to the client
+        private int stepsRevision;
+
+        Session() {
+            // normally reported by the browser when the UI is initialized
+            ui.getPage().updateLocation("http://localhost/wizard");
+            UI.setCurrent(ui);
+            try {
+                wizard = BenchmarkStep.createWizard(stepCount);
+                wizard.setLinkMode(Wizard.LinkMode.ALL);
+                wizard.setUriFragmentEnabled(true);
+                ui.setContent(wizard);
+                // the UI has no session, so the wizard is never attached
+                // and does not register itself
+                ui.getPage().addUriFragmentChangedListener(wizard);
+            } finally {
+                UI.setCurrent(null);
+            }
+            progressBar = (WizardProgressBar) wizard.getProgressBar();
+            // the handler the client side calls are delivered to
+            progressBarRpc = (WizardProgressBarServerRpc) progressBar
+                    .getRpcManager(WizardProgressBarServerRpc.class.getName())
+                    .getImplementation();
+            respond(true);
+        }
+
+        private void respond(boolean initial) {
+            progressBar.beforeClientResponse(initial);
+            // written to the response and dropped, like a client keeping
+            // only the revision of the steps it shows
+            for (ClientMethodInvocation call : progressBar
+                    .retrievePendingRpcCalls()) {
+                if (call.getMethodName().equals("setSteps")) {
+                    stepsRevision = (Integer) call.getParameters()[0];
+                }
+            }
+        }
+
+        /**
+         * Runs the script the given number of times, one action after another
+         * like the requests of a single user, and returns the latency of each
+         * action in nanoseconds.
+         */
+        long[] runScript(int times) {
+            long[] latencies = new long[times * script.length];
+            for (int i = 0; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                lock.lock();
+                UI.setCurrent(ui);
+                try {
+                    perform(script[i % script.length]);
+                    respond(false);
+                } finally {
+                    UI.setCurrent(null);
+                    lock.unlock();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+            return latencies;
+        }
+
+        private void perform(String action) {
+            if (action.equals("next")) {
+                wizard.next();
+            } else if (action.equals("back")) {
+                wizard.back();
+            } else if (action.equals("finish")) {
+                wizard.finish();
+            } else if (action.startsWith("click:")) {
+                progressBarRpc.progressBarItemClicked(
+                        stepsRevision,
+                        index(action.substring("click:".length())));
+            } else if (action.startsWith("fragment:")) {
+                int index = index(action.substring("fragment:".length()));
+                ui.getPage().setUriFragment(BenchmarkStep.id(index));
+                if (!wizard.isActive(wizard.getSteps().get(index))) {
+                    throw new IllegalStateException("Action " + action
+                            + " did not activate the step");
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown action: " + action);
+            }
+        }
+
+        private int index(String index) {
+            if (index.equals("last")) {
+                return stepCount - 1;
+            }
+            return Integer.parseInt(index);
+        }
+
+    }
+
+    /**
+     * Results of a simulation run.
+     */
+    public static class Report {
+
+        private final int sessionCount;
+        private final long actionCount;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final long retainedBytes;
+
+        Report(int sessionCount, long elapsedNanos, long[] latencies,
+                long retainedBytes) {
+            this.sessionCount = sessionCount;
+            this.elapsedNanos = elapsedNanos;
+            this.retainedBytes = retainedBytes;
+            actionCount = latencies.length;
+            sortedLatencies = latencies.clone();
+            Arrays.sort(sortedLatencies);
+        }
+
+        /**
+         * Returns the number of actions performed per second.
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : actionCount * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the given percentile of the action latencies in
+         * nanoseconds.
+         * 
+         * @param percentile
+         *            percentile between 0 and 100.
+         */
+        public long getLatencyPercentileNanos(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(sortedLatencies.length * percentile
+                    / 100);
+            return sortedLatencies[Math.max(0, rank - 1)];
+        }
+
+        /**
+         * Returns the average heap retained by a session after it has been
+         * created, in bytes. The value is an estimate based on the used heap
+         * after garbage collection.
+         */
+        public long getRetainedBytesPerSession() {
+            return sessionCount == 0 ? 0 : retainedBytes / sessionCount;
+        }
+
+        public long getActionCount() {
+            return actionCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d sessions, %d actions in %.1f ms%n"
+                    + "throughput: %.0f actions/s%n"
+                    + "latency p50: %.3f ms, p90: %.3f ms, p99: %.3f ms,"
+                    + " max: %.3f ms%n" + "retained heap: %d bytes/session",
+                    sessionCount, actionCount, elapsedNanos / 1e6,
+                    getThroughput(), getLatencyPercentileNanos(50) / 1e6,
+                    getLatencyPercentileNanos(90) / 1e6,
+                    getLatencyPercentileNanos(99) / 1e6,
+                    getLatencyPercentileNanos(100) / 1e6,
+                    getRetainedBytesPerSession());
+        }
+    }
+
+    public LoadSimulator(int sessionCount, int threadCount, int stepCount,
+            int iterations, String script) {
+        if (sessionCount < 1 || threadCount < 1 || stepCount < 2
+                || iterations < 1) {
+            throw new IllegalArgumentException(
+                    "At least one session, thread and iteration and two steps are required.");
+        }
+        this.sessionCount = sessionCount;
+        this.threadCount = threadCount;
+        this.stepCount = stepCount;
+        this.iterations = iterations;
+        this.script = script.split(",");
+    }
+
+    /**
+     * Creates the sessions and runs the script the given number of times in
+     * each of them.
+     * 
+     * @return the results of the run.
+     */
+    public Report run() throws InterruptedException {
+        long heapBefore = usedHeapAfterGc();
+        List<Session> sessions = new ArrayList<Session>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            sessions.add(new Session());
+        }
+        long retained = Math.max(0, usedHeapAfterGc() - heapBefore);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>(
+                sessionCount);
+        long start = System.nanoTime();
+        try {
+            // the sessions interleave like independent users, while the
+            // actions of each session run in order
+            for (final Session session : sessions) {
+                results.add(executor.submit(new Callable<long[]>() {
+                    public long[] call() {
+                        return session.runScript(iterations);
+                    }
+                }));
+            }
+            long[] latencies = new long[sessionCount * iterations
+                    * script.length];
+            int offset = 0;
+            for (Future<long[]> result : results) {
+                long[] scriptLatencies = result.get();
+                System.arraycopy(scriptLatencies, 0, latencies, offset,
+                        scriptLatencies.length);
+                offset += scriptLatencies.length;
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Report(sessionCount, elapsed, latencies, retained);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Simulated session failed",
+                    e.getCause());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+                .getRuntime().availableProcessors();
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        String script = args.length > 4 ? args[4] : DEFAULT_SCRIPT;
+
+        LoadSimulator simulator = new LoadSimulator(sessions, threads, steps,
+                iterations, script);
+        System.out.println(simulator.run());
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures moving between the steps of a Wizard with the buttons and by
+ * jumping to a step the way the progress bar and URI fragments do. The jump
+ * length is given as a percentage of the step count so that the same
+ * parameters work for every step count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int stepCount;
+
+    @Param({ "10", "50", "100" })
+    public int jumpPercentage;
+
+    private Wizard wizard;
+    private String firstId;
+    private String targetId;
+
+    @Setup
+    public void setUp() {
+        wizard = BenchmarkStep.createWizard(stepCount);
+        wizard.setLinkMode(Wizard.LinkMode.ALL);
+        int target = Math.max(1, (stepCount - 1) * jumpPercentage / 100);
+        firstId = BenchmarkStep.id(0);
+        targetId = BenchmarkStep.id(target);
+    }
+
+    @Benchmark
+    public void nextAndBack() {
+        wizard.next();
+        wizard.back();
+    }
+
+    @Benchmark
+    public void jumpForwardAndBack() {
+        wizard.tryToActivateStep(targetId);
+        wizard.tryToActivateStep(firstId);
+    }
+
+}
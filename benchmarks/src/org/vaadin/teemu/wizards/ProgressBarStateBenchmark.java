@@ -0,0 +1,74 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building the shared state and the client RPC calls of the
+ * {@link WizardProgressBar} before a response is written to the client, with
+ * the middle step active.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressBarStateBenchmark {
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int stepCount;
+
+    private Wizard wizard;
+    private WizardProgressBar progressBar;
+    private boolean forward = true;
+
+    @Setup
+    public void setUp() {
+        wizard = BenchmarkStep.createWizard(stepCount);
+        wizard.tryToActivateStep(BenchmarkStep.id(stepCount / 2));
+        progressBar = (WizardProgressBar) wizard.getProgressBar();
+        progressBar.beforeClientResponse(true);
+        progressBar.retrievePendingRpcCalls();
+    }
+
+    @Benchmark
+    public void initialResponse(Blackhole blackhole) {
+        progressBar.beforeClientResponse(true);
+        blackhole.consume(progressBar.retrievePendingRpcCalls());
+    }
+
+    @Benchmark
+    public void subsequentResponse(Blackhole blackhole) {
+        progressBar.beforeClientResponse(false);
+        blackhole.consume(progressBar.retrievePendingRpcCalls());
+    }
+
+    /**
+     * Moves one step forward or back and builds the response to it.
+     */
+    @Benchmark
+    public void navigationResponse(Blackhole blackhole) {
+        if (forward) {
+            wizard.next();
+        } else {
+            wizard.back();
+        }
+        forward = !forward;
+        progressBar.beforeClientResponse(false);
+        blackhole.consume(progressBar.retrievePendingRpcCalls());
+    }
+
+}
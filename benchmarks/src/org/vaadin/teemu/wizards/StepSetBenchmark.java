@@ -0,0 +1,60 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding and removing steps of a Wizard that already has the given
+ * number of steps. Each invocation adds a step and removes it again so that
+ * the step count stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepSetBenchmark {
+
+    private static final String EXTRA_ID = "extra";
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int stepCount;
+
+    private Wizard wizard;
+    private WizardStep extraStep;
+    private int middleIndex;
+
+    @Setup
+    public void setUp() {
+        wizard = BenchmarkStep.createWizard(stepCount);
+        extraStep = new BenchmarkStep(stepCount);
+        middleIndex = stepCount / 2;
+    }
+
+    @Benchmark
+    public void addAndRemoveLast() {
+        wizard.addStep(extraStep, EXTRA_ID);
+        wizard.removeStep(EXTRA_ID);
+    }
+
+    @Benchmark
+    public void insertAndRemoveMiddle() {
+        wizard.insertSteps(middleIndex,
+                Collections.singletonMap(EXTRA_ID, extraStep));
+        wizard.removeStep(EXTRA_ID);
+    }
+
+}
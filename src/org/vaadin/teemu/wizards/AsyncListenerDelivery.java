@@ -0,0 +1,227 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+
+/**
+ * Delivers events to asynchronous {@link WizardProgressListener}s of a
+ * {@link Wizard} outside of the request that caused them. The notifications
+ * are queued in a bounded queue and run one at a time with the given
+ * {@link Executor}, so the listeners of a Wizard are notified in the same
+ * order as the events occurred. Each Wizard needs its own instance, but the
+ * executor can be shared.
+ * 
+ * <p>
+ * Asynchronous listeners are run without holding the session lock. They must
+ * use {@link com.vaadin.ui.UI#access(Runnable)} to modify any components.
+ * </p>
+ * 
+ * @see Wizard#setAsyncListenerDelivery(AsyncListenerDelivery)
+ * @see Wizard#addAsyncListener(WizardProgressListener)
+ */
+public class AsyncListenerDelivery {
+
+    /**
+     * What to do when an event occurs while the queue is full.
+     */
+    public static enum BackpressurePolicy {
+        /** Wait in the request thread until there is room in the queue. */
+        BLOCK,
+        /** Drop the new notification. */
+        DROP_NEWEST,
+        /** Drop the oldest queued notification to make room. */
+        DROP_OLDEST
+    }
+
+    private static final Logger logger = Logger
+            .getLogger(AsyncListenerDelivery.class.getName());
+
+    private final Executor executor;
+    private final BackpressurePolicy policy;
+    private final BlockingQueue<Delivery> queue;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    private static class Delivery {
+        final Runnable notification;
+        final long queuedAt;
+
+        Delivery(Runnable notification) {
+            this.notification = notification;
+            queuedAt = System.nanoTime();
+        }
+    }
+
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            try {
+                Delivery delivery;
+                while ((delivery = queue.poll()) != null) {
+                    deliver(delivery);
+                }
+            } finally {
+                draining.set(false);
+                // something may have been queued after the last poll
+                if (!queue.isEmpty()) {
+                    scheduleDrain();
+                }
+            }
+        }
+    };
+
+    /**
+     * @param executor
+     *            executor running the notifications, may be shared between
+     *            wizards.
+     * @param capacity
+     *            maximum number of queued notifications.
+     * @param policy
+     *            what to do when the queue is full.
+     */
+    public AsyncListenerDelivery(Executor executor, int capacity,
+            BackpressurePolicy policy) {
+        if (executor == null || policy == null) {
+            throw new IllegalArgumentException(
+                    "Executor and backpressure policy are required.");
+        }
+        this.executor = executor;
+        this.policy = policy;
+        queue = new ArrayBlockingQueue<Delivery>(capacity);
+    }
+
+    /**
+     * Queues the given listener notification.
+     */
+    void enqueue(Runnable notification) {
+        Delivery delivery = new Delivery(notification);
+        switch (policy) {
+        case BLOCK:
+            try {
+                queue.put(delivery);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedCount.incrementAndGet();
+                return;
+            }
+            break;
+        case DROP_NEWEST:
+            if (!queue.offer(delivery)) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            break;
+        case DROP_OLDEST:
+            while (!queue.offer(delivery)) {
+                if (queue.poll() != null) {
+                    droppedCount.incrementAndGet();
+                }
+            }
+            break;
+        }
+        updateMax(maxQueueDepth, queue.size());
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RuntimeException e) {
+                draining.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        try {
+            delivery.notification.run();
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.log(Level.WARNING,
+                    "Asynchronous wizard listener threw an exception", e);
+        }
+        long latency = System.nanoTime() - delivery.queuedAt;
+        deliveredCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        updateMax(maxLatencyNanos, latency);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of notifications currently waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the highest number of notifications that have been waiting in
+     * the queue at the same time.
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of notifications delivered to listeners, including
+     * the ones where the listener threw an exception.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * Returns the number of notifications dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of notifications where the listener threw an
+     * exception.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the average time in nanoseconds from queuing a notification
+     * until the listener has returned.
+     */
+    public long getAverageLatencyNanos() {
+        long delivered = deliveredCount.get();
+        return delivered == 0 ? 0 : totalLatencyNanos.get() / delivered;
+    }
+
+    /**
+     * Returns the longest time in nanoseconds from queuing a notification
+     * until the listener has returned.
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+}
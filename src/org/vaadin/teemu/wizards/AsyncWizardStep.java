@@ -0,0 +1,40 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link WizardStep} whose navigation checks are performed asynchronously,
+ * for example against a slow backend service. When the {@link Wizard} has a
+ * validation executor (see {@link Wizard#setValidationExecutor(Executor)}),
+ * it waits for the returned {@link Future} outside of the request, shows a
+ * pending state meanwhile and completes the transition once the result is
+ * available. Without a validation executor the Wizard waits for the result
+ * during the request.
+ * 
+ * <p>
+ * The synchronous {@link #onAdvance()} and {@link #onBack()} methods are not
+ * called by the Wizard for steps implementing this interface.
+ * </p>
+ */
+public interface AsyncWizardStep extends WizardStep {
+
+    /**
+     * Starts checking whether user is allowed to navigate forward past this
+     * WizardStep.
+     * 
+     * @return a {@link Future} resolving to {@code true} if user is allowed
+     *         to navigate past this WizardStep.
+     */
+    public Future<Boolean> onAdvanceAsync();
+
+    /**
+     * Starts checking whether user is allowed to navigate backwards from this
+     * WizardStep.
+     * 
+     * @return a {@link Future} resolving to {@code true} if user is allowed
+     *         to navigate backwards from this WizardStep.
+     */
+    public Future<Boolean> onBackAsync();
+
+}
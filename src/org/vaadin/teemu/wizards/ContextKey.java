@@ -0,0 +1,67 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+
+/**
+ * Typed key of a value in a {@link WizardContext}. Keys are equal if they
+ * have the same name and type, so they are typically declared as constants
+ * shared by the steps that exchange the value.
+ * 
+ * <pre>
+ * public static final ContextKey&lt;String&gt; EMAIL = ContextKey.of(&quot;email&quot;,
+ *         String.class);
+ * </pre>
+ * 
+ * @param <T>
+ *            type of the value.
+ */
+@SuppressWarnings("serial")
+public final class ContextKey<T> implements Serializable {
+
+    private final String name;
+    private final Class<T> type;
+
+    private ContextKey(String name, Class<T> type) {
+        if (name == null || type == null) {
+            throw new IllegalArgumentException(
+                    "Key name and type cannot be null.");
+        }
+        this.name = name;
+        this.type = type;
+    }
+
+    public static <T> ContextKey<T> of(String name, Class<T> type) {
+        return new ContextKey<T>(name, type);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ContextKey)) {
+            return false;
+        }
+        ContextKey<?> other = (ContextKey<?>) obj;
+        return name.equals(other.name) && type.equals(other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + type.getName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + type.getSimpleName();
+    }
+
+}
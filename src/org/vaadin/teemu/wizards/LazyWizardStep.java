@@ -0,0 +1,89 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+
+import com.vaadin.ui.Component;
+
+/**
+ * Placeholder for a {@link WizardStep} that is created by a
+ * {@link WizardStepFactory} only when it is first needed. The caption is known
+ * up front, so the progress bar can display the step before it exists.
+ * 
+ * @see Wizard#addStep(WizardStepFactory, String, String)
+ */
+@SuppressWarnings("serial")
+public class LazyWizardStep implements ReleasableWizardStep, Serializable {
+
+    private final String caption;
+    private final WizardStepFactory factory;
+    private WizardStep step;
+
+    public LazyWizardStep(String caption, WizardStepFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Step factory cannot be null.");
+        }
+        this.caption = caption;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the caption given when registering this step. The actual step
+     * is not created for this.
+     */
+    public String getCaption() {
+        return caption;
+    }
+
+    public Component getContent() {
+        return getStep().getContent();
+    }
+
+    public boolean onAdvance() {
+        return getStep().onAdvance();
+    }
+
+    public boolean onBack() {
+        return getStep().onBack();
+    }
+
+    public void onActivate() {
+        getStep().onActivate();
+    }
+
+    /**
+     * Passes the release notification on to the actual step if it has been
+     * created and implements {@link ReleasableWizardStep}.
+     */
+    public void releaseContent() {
+        if (step instanceof ReleasableWizardStep) {
+            ((ReleasableWizardStep) step).releaseContent();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the actual step has already been created.
+     * 
+     * @return {@code true} if the actual step has been created.
+     */
+    public boolean isMaterialized() {
+        return step != null;
+    }
+
+    /**
+     * Returns the actual {@link WizardStep}, creating it with the factory if
+     * it hasn't been created yet.
+     * 
+     * @return the actual WizardStep.
+     */
+    public WizardStep getStep() {
+        if (step == null) {
+            step = factory.createStep();
+            if (step == null) {
+                throw new IllegalStateException(
+                        "Step factory returned null for step " + caption);
+            }
+        }
+        return step;
+    }
+
+}
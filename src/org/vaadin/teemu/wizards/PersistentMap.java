@@ -0,0 +1,251 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Immutable hash array mapped trie. Adding or removing a mapping returns a
+ * new map that shares all the unchanged parts of the trie with the original,
+ * so keeping older versions of the map costs memory only in proportion to
+ * the number of changes. Keys must not be {@code null}.
+ */
+@SuppressWarnings({ "serial", "unchecked" })
+final class PersistentMap<K, V> implements Serializable {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // nodes below this shift have used all hash bits and hold colliding keys
+    private static final int MAX_SHIFT = 30;
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<Object, Object>(
+            null, 0);
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * Node of the trie. For each bit set in the bitmap, the array holds a
+     * key and a value, or {@code null} and a child node.
+     */
+    private static final class Node implements Serializable {
+
+        final int bitmap;
+        final Object[] array;
+
+        Node(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Object get(int shift, int hash, Object key) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i])) {
+                        return array[i + 1];
+                    }
+                }
+                return NOT_FOUND;
+            }
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                return ((Node) array[i + 1]).get(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? array[i + 1] : NOT_FOUND;
+        }
+
+        Node put(int shift, int hash, Object key, Object value,
+                boolean[] added) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i])) {
+                        return array[i + 1] == value ? this : new Node(0,
+                                replaced(array, i + 1, value));
+                    }
+                }
+                added[0] = true;
+                return new Node(0, inserted(array, array.length, key, value));
+            }
+            int bit = bitpos(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new Node(bitmap | bit, inserted(array, i, key, value));
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = (Node) v;
+                Node newChild = child.put(shift + BITS, hash, key, value,
+                        added);
+                return newChild == child ? this : new Node(bitmap, replaced(
+                        array, i + 1, newChild));
+            }
+            if (key.equals(k)) {
+                return v == value ? this : new Node(bitmap, replaced(array,
+                        i + 1, value));
+            }
+            // two different keys in the same slot, push both one level down
+            Node child = EMPTY_NODE.put(shift + BITS, hash(k), k, v, added)
+                    .put(shift + BITS, hash, key, value, added);
+            added[0] = true;
+            Object[] newArray = replaced(array, i, null);
+            newArray[i + 1] = child;
+            return new Node(bitmap, newArray);
+        }
+
+        /**
+         * @return the node without the key, {@code null} if it would be empty.
+         */
+        Node remove(int shift, int hash, Object key) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i])) {
+                        return array.length == 2 ? null : new Node(0,
+                                removed(array, i));
+                    }
+                }
+                return this;
+            }
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            if (k == null) {
+                Node child = (Node) array[i + 1];
+                Node newChild = child.remove(shift + BITS, hash, key);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    return new Node(bitmap, replaced(array, i + 1, newChild));
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            return bitmap == bit ? null : new Node(bitmap ^ bit, removed(
+                    array, i));
+        }
+
+        void collectKeys(List<Object> keys) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).collectKeys(keys);
+                } else {
+                    keys.add(array[i]);
+                }
+            }
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] replaced(Object[] array, int i, Object value) {
+        Object[] copy = array.clone();
+        copy[i] = value;
+        return copy;
+    }
+
+    private static Object[] inserted(Object[] array, int i, Object key,
+            Object value) {
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, i);
+        copy[i] = key;
+        copy[i + 1] = value;
+        System.arraycopy(array, i, copy, i + 2, array.length - i);
+        return copy;
+    }
+
+    private static Object[] removed(Object[] array, int i) {
+        Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, i);
+        System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+        return copy;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(K key) {
+        return root != null && root.get(0, hash(key), key) != NOT_FOUND;
+    }
+
+    V get(K key) {
+        if (root == null) {
+            return null;
+        }
+        Object value = root.get(0, hash(key), key);
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    /**
+     * Returns a map with the given mapping added, or this map if it already
+     * had the mapping.
+     */
+    PersistentMap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node node = root == null ? EMPTY_NODE : root;
+        Node newRoot = node.put(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map without the given key, or this map if it did not have the
+     * key.
+     */
+    PersistentMap<K, V> remove(K key) {
+        if (root == null) {
+            return this;
+        }
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? PersistentMap.<K, V> empty()
+                : new PersistentMap<K, V>(newRoot, size - 1);
+    }
+
+    /**
+     * Adds the keys of this map to the given list.
+     */
+    void collectKeys(List<? super K> keys) {
+        if (root != null) {
+            root.collectKeys((List<Object>) keys);
+        }
+    }
+
+}
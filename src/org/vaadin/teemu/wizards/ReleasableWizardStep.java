@@ -0,0 +1,21 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * A {@link WizardStep} that is able to release its content when it is no
+ * longer displayed. Steps implementing this interface are notified when their
+ * content is evicted from the content cache of a {@link Wizard}.
+ * 
+ * @see Wizard#setContentCacheSize(int)
+ */
+public interface ReleasableWizardStep extends WizardStep {
+
+    /**
+     * Called when the content of this WizardStep has been evicted from the
+     * content cache of the {@link Wizard}. The step should drop any references
+     * to its content {@link com.vaadin.ui.Component} so that it can be garbage
+     * collected. The content is requested again with {@link #getContent()} the
+     * next time the step is activated.
+     */
+    public void releaseContent();
+
+}
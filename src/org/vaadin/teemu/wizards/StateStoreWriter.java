@@ -0,0 +1,82 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+import org.vaadin.teemu.wizards.store.WizardStateStore;
+
+/**
+ * Writes the states of a {@link Wizard} to its {@link WizardStateStore}
+ * outside of the request. The writes are done one at a time and only the
+ * latest pending state is written, so an older state never replaces a newer
+ * one. Failures are logged, as there is nobody to report them to.
+ */
+class StateStoreWriter {
+
+    private static final Logger logger = Logger
+            .getLogger(StateStoreWriter.class.getName());
+
+    /** Pending write removing the stored state. */
+    private static final WizardState REMOVED = new WizardState(new String[0],
+            -1, -1, LinkMode.NONE, false);
+
+    private final WizardStateStore store;
+    private final String key;
+
+    // the next state to write or null if nothing is pending
+    private final AtomicReference<WizardState> pending = new AtomicReference<WizardState>();
+
+    StateStoreWriter(WizardStateStore store, String key) {
+        this.store = store;
+        this.key = key;
+    }
+
+    void save(WizardState state, Executor executor) {
+        schedule(state, executor);
+    }
+
+    void remove(Executor executor) {
+        schedule(REMOVED, executor);
+    }
+
+    private void schedule(WizardState state, Executor executor) {
+        if (pending.getAndSet(state) != null) {
+            // written by the write already scheduled
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    writePending();
+                }
+            });
+        } catch (RuntimeException e) {
+            // for example rejected by the executor
+            writePending();
+        }
+    }
+
+    private void writePending() {
+        WizardState state = pending.get();
+        while (state != null) {
+            try {
+                if (state == REMOVED) {
+                    store.remove(key);
+                } else {
+                    store.save(key, state);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Storing the state of wizard " + key
+                        + " failed", e);
+            }
+            if (pending.compareAndSet(state, null)) {
+                return;
+            }
+            state = pending.get();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.vaadin.ui.Component;
+
+/**
+ * Bounded least-recently-used cache for the content {@link Component}s of
+ * {@link WizardStep}s. When more than {@link #getMaxSize()} step contents are
+ * cached, the least recently activated one is evicted and the step is notified
+ * if it implements {@link ReleasableWizardStep}.
+ * 
+ * <p>
+ * Steps are told apart by identity, as elsewhere in the {@link Wizard}, so a
+ * step overriding {@code equals()} neither shares nor loses its content.
+ * </p>
+ * 
+ * @see Wizard#setContentCacheSize(int)
+ */
+@SuppressWarnings("serial")
+public class StepContentCache implements Serializable {
+
+    private final int maxSize;
+    private final Map<WizardStep, Entry> contents = new IdentityHashMap<WizardStep, Entry>();
+
+    // sentinel of the list of entries from the least to the most recently used
+    private final Entry head = new Entry(null, null);
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public StepContentCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(
+                    "Content cache must hold at least one step content.");
+        }
+        this.maxSize = maxSize;
+        head.previous = head;
+        head.next = head;
+    }
+
+    /**
+     * Returns the cached content of the given step or requests it from the
+     * step with {@link WizardStep#getContent()} and caches it.
+     * 
+     * @param step
+     * @return the content of the given step.
+     */
+    Component getContent(WizardStep step) {
+        Entry entry = contents.get(step);
+        if (entry != null) {
+            hitCount++;
+            entry.unlink();
+            entry.linkBefore(head);
+            return entry.content;
+        }
+
+        missCount++;
+        Component content = step.getContent();
+        if (content != null) {
+            entry = new Entry(step, content);
+            entry.linkBefore(head);
+            contents.put(step, entry);
+            evictExcess();
+        }
+        return content;
+    }
+
+    /**
+     * Removes the content of the given step from this cache and notifies the
+     * step.
+     * 
+     * @param step
+     */
+    void remove(WizardStep step) {
+        Entry entry = contents.remove(step);
+        if (entry != null) {
+            entry.unlink();
+            release(step);
+        }
+    }
+
+    /**
+     * Removes all contents from this cache and notifies the steps, except the
+     * given step whose content is still shown.
+     * 
+     * @param shown
+     *            the step whose content is not released or {@code null}.
+     */
+    void clear(WizardStep shown) {
+        Entry entry = head.next;
+        contents.clear();
+        head.previous = head;
+        head.next = head;
+        while (entry != head) {
+            if (entry.step != shown) {
+                release(entry.step);
+            }
+            entry = entry.next;
+        }
+    }
+
+    private void evictExcess() {
+        while (contents.size() > maxSize) {
+            Entry eldest = head.next;
+            eldest.unlink();
+            contents.remove(eldest.step);
+            evictionCount++;
+            release(eldest.step);
+        }
+    }
+
+    private void release(WizardStep step) {
+        if (step instanceof ReleasableWizardStep) {
+            ((ReleasableWizardStep) step).releaseContent();
+        }
+    }
+
+    /**
+     * Returns the maximum number of step contents held by this cache.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of step contents currently held by this cache.
+     */
+    public int size() {
+        return contents.size();
+    }
+
+    /**
+     * Returns the number of activations that were served from this cache.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of activations that had to request the content from
+     * the step.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of step contents evicted from this cache.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static class Entry implements Serializable {
+
+        private final WizardStep step;
+        private final Component content;
+        private Entry previous;
+        private Entry next;
+
+        Entry(WizardStep step, Component content) {
+            this.step = step;
+            this.content = content;
+        }
+
+        void linkBefore(Entry successor) {
+            previous = successor.previous;
+            next = successor;
+            previous.next = this;
+            successor.previous = this;
+        }
+
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+        }
+    }
+
+}
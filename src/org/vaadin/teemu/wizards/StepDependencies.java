@@ -0,0 +1,114 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the data dependencies between the steps of a
+ * {@link Wizard}. When a step with dependencies allows advancing, the data
+ * versions of its upstream {@link VersionedWizardStep}s are recorded. The step
+ * becomes stale when the version of an upstream step changes afterwards, or
+ * when an upstream step becomes stale itself.
+ */
+@SuppressWarnings("serial")
+class StepDependencies implements Serializable {
+
+    private final Map<String, String[]> upstreamIds = new HashMap<String, String[]>();
+    private final Map<String, Long[]> recordedVersions = new HashMap<String, Long[]>();
+
+    boolean isEmpty() {
+        return upstreamIds.isEmpty();
+    }
+
+    void setDependencies(String id, String[] upstream) {
+        if (upstream.length == 0) {
+            upstreamIds.remove(id);
+        } else {
+            upstreamIds.put(id, upstream.clone());
+        }
+        recordedVersions.remove(id);
+    }
+
+    /**
+     * Returns the identifiers of the steps with declared dependencies.
+     */
+    Set<String> getDependentIds() {
+        return Collections.unmodifiableSet(upstreamIds.keySet());
+    }
+
+    String[] getDependencies(String id) {
+        String[] upstream = upstreamIds.get(id);
+        return upstream == null ? new String[0] : upstream.clone();
+    }
+
+    /**
+     * Records the current data versions of the upstream steps of the given
+     * step.
+     */
+    void validated(String id, StepRegistry registry) {
+        String[] upstream = upstreamIds.get(id);
+        if (upstream == null) {
+            return;
+        }
+        Long[] versions = new Long[upstream.length];
+        for (int i = 0; i < upstream.length; i++) {
+            versions[i] = ValidationMemo.getDataVersion(registry
+                    .get(upstream[i]));
+        }
+        recordedVersions.put(id, versions);
+    }
+
+    /**
+     * Returns {@code true} if the data of an upstream step of the given step
+     * has changed since the step last allowed advancing.
+     */
+    boolean isStale(String id, StepRegistry registry) {
+        if (upstreamIds.isEmpty()) {
+            return false;
+        }
+        return isStale(id, registry, new HashSet<String>());
+    }
+
+    private boolean isStale(String id, StepRegistry registry,
+            Set<String> visited) {
+        String[] upstream = upstreamIds.get(id);
+        if (upstream == null || !visited.add(id)) {
+            return false;
+        }
+        Long[] versions = recordedVersions.get(id);
+        for (int i = 0; i < upstream.length; i++) {
+            WizardStep upstreamStep = registry.get(upstream[i]);
+            if (upstreamStep == null) {
+                // removed steps are not tracked
+                continue;
+            }
+            Long version = ValidationMemo.getDataVersion(upstreamStep);
+            if (versions != null && version != null
+                    && !version.equals(versions[i])) {
+                return true;
+            }
+            if (isStale(upstream[i], registry, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the recorded upstream versions of the given step but keeps its
+     * declared dependencies.
+     */
+    void forgetValidation(String id) {
+        recordedVersions.remove(id);
+    }
+
+    void forget(String id) {
+        upstreamIds.remove(id);
+        recordedVersions.remove(id);
+    }
+
+}
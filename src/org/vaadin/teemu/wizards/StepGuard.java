@@ -0,0 +1,34 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Condition of an edge in a {@link WizardStepGraph}. The edge can be followed
+ * when the guard is open. A guard may only read the guard inputs it declares,
+ * so that the graph knows which part of the path to resolve again when an
+ * input changes.
+ * 
+ * @see WizardStepGraph#addEdge(String, String, StepGuard)
+ * @see WizardStepGraph#setGuardInput(String, Object)
+ */
+public interface StepGuard extends Serializable {
+
+    /**
+     * Returns the keys of the guard inputs this guard depends on.
+     * 
+     * @return the input keys, never {@code null}.
+     */
+    public String[] getInputKeys();
+
+    /**
+     * Returns {@code true} if the edge of this guard can be followed with the
+     * given guard inputs.
+     * 
+     * @param inputs
+     *            read-only view of the current guard inputs.
+     * @return {@code true} if the edge can be followed.
+     */
+    public boolean isOpen(Map<String, Object> inputs);
+
+}
@@ -0,0 +1,319 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Ordered registry of the {@link WizardStep}s of a {@link Wizard}. Keeps the
+ * step order together with step&harr;index and step&harr;id mappings so that
+ * navigation and state building can look up a step's position or identifier
+ * in constant time.
+ *
+ * <p>
+ * Removing or inserting a step re-indexes the steps that follow it, so these
+ * take time linear in the number of following steps. Adding a step to the end
+ * and all lookups take constant time.
+ * </p>
+ *
+ * <p>
+ * A registry created from a {@link WizardDefinition} uses the identifier and
+ * caption tables of the shared definition and keeps only the
+ * {@link LazyWizardStep}s that have been asked for. It copies the steps into
+ * its own tables only when they are first added or removed.
+ * </p>
+ */
+@SuppressWarnings("serial")
+class StepRegistry implements Serializable {
+
+    /** Read-only view of the steps in order. */
+    final List<WizardStep> steps = new StepList();
+
+    /** Read-only view of the steps by their identifiers. */
+    final Map<String, WizardStep> idMap = new IdMap();
+
+    private final List<WizardStep> stepList = new ArrayList<WizardStep>();
+    private final Map<String, WizardStep> byId = new HashMap<String, WizardStep>();
+
+    // steps are told apart by identity, not by their equals()
+    private final Map<WizardStep, String> stepToId = new IdentityHashMap<WizardStep, String>();
+    private final Map<WizardStep, Integer> stepToIndex = new IdentityHashMap<WizardStep, Integer>();
+
+    // the steps as given by the definition until they are modified
+    private WizardDefinition definition;
+    private Map<Integer, LazyWizardStep> placeholders;
+    private Map<WizardStep, Integer> placeholderToIndex;
+
+    /**
+     * Uses the steps of the given definition. Must be called while the
+     * registry is empty.
+     */
+    void setDefinition(WizardDefinition definition) {
+        this.definition = definition;
+        placeholders = new HashMap<Integer, LazyWizardStep>();
+        placeholderToIndex = new IdentityHashMap<WizardStep, Integer>();
+    }
+
+    /**
+     * Returns the definition whose steps are used unmodified or {@code null}.
+     */
+    WizardDefinition getDefinition() {
+        return definition;
+    }
+
+    boolean containsId(String id) {
+        if (definition != null) {
+            return definition.indexOf(id) >= 0;
+        }
+        return byId.containsKey(id);
+    }
+
+    boolean contains(WizardStep step) {
+        return indexOf(step) >= 0;
+    }
+
+    int size() {
+        if (definition != null) {
+            return definition.getStepCount();
+        }
+        return stepList.size();
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    WizardStep get(int index) {
+        if (definition != null) {
+            return getPlaceholder(index);
+        }
+        return stepList.get(index);
+    }
+
+    WizardStep get(String id) {
+        if (definition != null) {
+            int index = definition.indexOf(id);
+            return index < 0 ? null : getPlaceholder(index);
+        }
+        return byId.get(id);
+    }
+
+    private WizardStep getPlaceholder(int index) {
+        if (index < 0 || index >= definition.getStepCount()) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + definition.getStepCount());
+        }
+        LazyWizardStep step = placeholders.get(index);
+        if (step == null) {
+            step = new LazyWizardStep(definition.getCaption(index),
+                    definition.getFactory(index));
+            placeholders.put(index, step);
+            placeholderToIndex.put(step, index);
+        }
+        return step;
+    }
+
+    /**
+     * Returns the position of the given step or {@code -1} if the step is
+     * {@code null} or not part of this registry.
+     */
+    int indexOf(WizardStep step) {
+        if (step == null) {
+            return -1;
+        }
+        Integer index = definition != null ? placeholderToIndex.get(step)
+                : stepToIndex.get(step);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     * Returns the identifier of the given step or {@code null} if the step is
+     * not part of this registry.
+     */
+    String getId(WizardStep step) {
+        if (step == null) {
+            return null;
+        }
+        if (definition != null) {
+            int index = indexOf(step);
+            return index < 0 ? null : definition.getStepId(index);
+        }
+        return stepToId.get(step);
+    }
+
+    /**
+     * Returns the identifier of the step at the given position without
+     * creating a placeholder for it.
+     */
+    String getId(int index) {
+        if (definition != null) {
+            return definition.getStepId(index);
+        }
+        return stepToId.get(stepList.get(index));
+    }
+
+    /**
+     * Returns the caption of the step at the given position without creating
+     * a placeholder for it.
+     */
+    String getCaption(int index) {
+        if (definition != null) {
+            return definition.getCaption(index);
+        }
+        return stepList.get(index).getCaption();
+    }
+
+    void add(WizardStep step, String id) {
+        insert(size(), step, id);
+    }
+
+    /**
+     * Inserts the given step at the given position.
+     *
+     * @throws IllegalArgumentException
+     *             if the step instance is already part of this registry.
+     */
+    void insert(int index, WizardStep step, String id) {
+        if (contains(step)) {
+            throw new IllegalArgumentException(
+                    "The same step instance cannot be added twice.");
+        }
+        copyDefinition();
+        stepList.add(index, step);
+        byId.put(id, step);
+        stepToId.put(step, id);
+        reindexFrom(index);
+    }
+
+    /**
+     * Removes the step with the given identifier.
+     *
+     * @return the removed step or {@code null} if no step had the given id.
+     */
+    WizardStep remove(String id) {
+        if (!containsId(id)) {
+            return null;
+        }
+        copyDefinition();
+        WizardStep step = byId.remove(id);
+        int index = indexOf(step);
+        stepList.remove(index);
+        stepToId.remove(step);
+        stepToIndex.remove(step);
+        reindexFrom(index);
+        return step;
+    }
+
+    /**
+     * Copies the steps of the definition to the tables of this registry
+     * before they are modified.
+     */
+    private void copyDefinition() {
+        if (definition == null) {
+            return;
+        }
+        WizardDefinition copied = definition;
+        int count = copied.getStepCount();
+        List<WizardStep> copiedSteps = new ArrayList<WizardStep>(count);
+        for (int i = 0; i < count; i++) {
+            copiedSteps.add(getPlaceholder(i));
+        }
+        definition = null;
+        placeholders = null;
+        placeholderToIndex = null;
+        for (int i = 0; i < count; i++) {
+            WizardStep step = copiedSteps.get(i);
+            String id = copied.getStepId(i);
+            stepList.add(step);
+            byId.put(id, step);
+            stepToId.put(step, id);
+        }
+        reindexFrom(0);
+    }
+
+    private void reindexFrom(int index) {
+        for (int i = index; i < stepList.size(); i++) {
+            stepToIndex.put(stepList.get(i), i);
+        }
+    }
+
+    private class StepList extends AbstractList<WizardStep> implements
+            Serializable {
+
+        @Override
+        public WizardStep get(int index) {
+            return StepRegistry.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return StepRegistry.this.size();
+        }
+    }
+
+    private class IdMap extends AbstractMap<String, WizardStep> implements
+            Serializable {
+
+        @Override
+        public WizardStep get(Object key) {
+            return key instanceof String ? StepRegistry.this.get((String) key)
+                    : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && containsId((String) key);
+        }
+
+        @Override
+        public int size() {
+            return StepRegistry.this.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, WizardStep>> entrySet() {
+            return new AbstractSet<Map.Entry<String, WizardStep>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, WizardStep>> iterator() {
+                    return new Iterator<Map.Entry<String, WizardStep>>() {
+
+                        private int next;
+
+                        public boolean hasNext() {
+                            return next < size();
+                        }
+
+                        public Map.Entry<String, WizardStep> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++;
+                            return new SimpleImmutableEntry<String, WizardStep>(
+                                    getId(index), StepRegistry.this.get(index));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return StepRegistry.this.size();
+                }
+            };
+        }
+    }
+
+}
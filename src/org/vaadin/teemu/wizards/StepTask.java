@@ -0,0 +1,297 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Long-running work of a {@link WizardStep}, such as an import started from
+ * {@link WizardStep#onActivate()}, that is run outside of the request thread.
+ * Subclasses implement {@link #execute()} and report their progress with
+ * {@link #setProgress(float)}. The progress is pushed to the UI through
+ * {@link UI#access(Runnable)} at most once per the progress interval of the
+ * Wizard, so that many concurrent tasks don't flood the push channel, and
+ * once more when the task finishes.
+ * 
+ * <p>
+ * The {@code done}, {@code failed}, {@code cancelled} and
+ * {@code progressChanged} callbacks are run while holding the session lock
+ * and may update the UI. They are not run once the UI has been detached, in
+ * which case the task is just marked finished. A task can be started only
+ * once.
+ * </p>
+ * 
+ * @param <T>
+ *            type of the result.
+ * @see Wizard#startStepTask(WizardStep, StepTask, ProgressBar,
+ *      StepTask.NavigationPolicy)
+ */
+public abstract class StepTask<T> {
+
+    /**
+     * How a running task affects navigating away from its step.
+     */
+    public static enum NavigationPolicy {
+        /** The step can be left, the task keeps running. */
+        ALLOW,
+        /** Advancing is not allowed until the task has finished. */
+        BLOCK_ADVANCE,
+        /** The step cannot be left until the task has finished. */
+        BLOCK_ALL,
+        /** Leaving the step cancels the task. */
+        CANCEL_ON_LEAVE
+    }
+
+    private Wizard wizard;
+    private WizardStep step;
+    private UI ui;
+    private ProgressBar indicator;
+    private NavigationPolicy policy;
+    private long progressIntervalNanos;
+
+    // guards runner so that cancel() cannot interrupt the thread after it
+    // has moved on to another task
+    private final Object runnerLock = new Object();
+    private Thread runner;
+    private volatile boolean cancelled;
+    private volatile boolean finished;
+    private volatile float progress;
+    private volatile long lastPush;
+    private final AtomicBoolean pushPending = new AtomicBoolean();
+    private T result;
+
+    /**
+     * Runs the task. Called in a background thread without holding the
+     * session lock. Long-running tasks should check {@link #isCancelled()}
+     * regularly and stop when interrupted.
+     * 
+     * @return the result passed to {@link #done(Object)}.
+     * @throws Exception
+     *             passed to {@link #failed(Exception)}.
+     */
+    protected abstract T execute() throws Exception;
+
+    /**
+     * Called with the session lock after the task has completed successfully.
+     * 
+     * @param result
+     *            the result returned by {@link #execute()}.
+     */
+    protected void done(T result) {
+    }
+
+    /**
+     * Called with the session lock if {@link #execute()} threw an exception.
+     * 
+     * @param exception
+     */
+    protected void failed(Exception exception) {
+    }
+
+    /**
+     * Called with the session lock after the task has been cancelled.
+     */
+    protected void cancelled() {
+    }
+
+    /**
+     * Called with the session lock when the progress is pushed to the UI,
+     * after the progress indicator has been updated.
+     * 
+     * @param progress
+     *            the latest progress between 0 and 1.
+     */
+    protected void progressChanged(float progress) {
+    }
+
+    /**
+     * Reports the progress of the task. May be called as often as needed,
+     * the updates are throttled.
+     * 
+     * @param progress
+     *            progress between 0 and 1.
+     */
+    protected void setProgress(float progress) {
+        this.progress = progress;
+        long now = System.nanoTime();
+        if (now - lastPush < progressIntervalNanos
+                || !pushPending.compareAndSet(false, true)) {
+            // the pending push will pick up the latest value
+            return;
+        }
+        lastPush = now;
+        if (!access(new Runnable() {
+            public void run() {
+                pushPending.set(false);
+                if (!finished) {
+                    pushProgress();
+                }
+            }
+        })) {
+            // nobody to show the progress to
+            pushPending.set(false);
+        }
+    }
+
+    private void pushProgress() {
+        float current = progress;
+        if (indicator != null) {
+            indicator.setValue(current);
+        }
+        progressChanged(current);
+    }
+
+    public float getProgress() {
+        return progress;
+    }
+
+    /**
+     * Cancels the task. The thread running the task is interrupted.
+     */
+    public void cancel() {
+        if (finished) {
+            return;
+        }
+        cancelled = true;
+        synchronized (runnerLock) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns {@code true} if the task has finished, successfully or not, and
+     * its callback has been run.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the result of a successfully finished task or {@code null}.
+     */
+    public T getResult() {
+        return result;
+    }
+
+    public WizardStep getStep() {
+        return step;
+    }
+
+    public NavigationPolicy getNavigationPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns {@code true} if this task prevents leaving its step in the
+     * given direction.
+     */
+    boolean blocksLeaving(boolean advancing) {
+        if (finished) {
+            return false;
+        }
+        return policy == NavigationPolicy.BLOCK_ALL
+                || (advancing && policy == NavigationPolicy.BLOCK_ADVANCE);
+    }
+
+    void start(Wizard wizard, WizardStep step, UI ui, ProgressBar indicator,
+            NavigationPolicy policy, long progressIntervalNanos,
+            Executor executor) {
+        if (this.wizard != null) {
+            throw new IllegalStateException(
+                    "The task has already been started.");
+        }
+        this.wizard = wizard;
+        this.step = step;
+        this.ui = ui;
+        this.indicator = indicator;
+        this.policy = policy;
+        this.progressIntervalNanos = progressIntervalNanos;
+        lastPush = System.nanoTime() - progressIntervalNanos;
+        executor.execute(new Runnable() {
+            public void run() {
+                runTask();
+            }
+        });
+    }
+
+    private void runTask() {
+        T value = null;
+        Exception failure = null;
+        synchronized (runnerLock) {
+            runner = Thread.currentThread();
+        }
+        try {
+            if (!cancelled) {
+                value = execute();
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            synchronized (runnerLock) {
+                runner = null;
+                // do not leak the interrupt of a cancel to the pooled thread
+                Thread.interrupted();
+            }
+        }
+        final T taskResult = value;
+        final Exception taskFailure = failure;
+        if (!access(new Runnable() {
+            public void run() {
+                finish(taskResult, taskFailure);
+            }
+        })) {
+            // nobody to report to, the Wizard drops the finished task when it
+            // next looks it up with the session lock
+            finished = true;
+        }
+    }
+
+    private void finish(T value, Exception failure) {
+        finished = true;
+        wizard.stepTaskFinished(this);
+        boolean succeeded = !cancelled && failure == null;
+        if (succeeded) {
+            result = value;
+            progress = 1;
+        }
+        // the last updates may have been throttled without a pending push
+        pushProgress();
+        if (cancelled) {
+            cancelled();
+        } else if (failure != null) {
+            failed(failure);
+        } else {
+            done(value);
+        }
+    }
+
+    /**
+     * Runs the given command with the session lock, or directly if the Wizard
+     * is not attached to a UI.
+     * 
+     * @return {@code false} if the UI has been detached and the command was
+     *         not run.
+     */
+    private boolean access(Runnable command) {
+        if (ui == null) {
+            command.run();
+            return true;
+        }
+        try {
+            ui.access(command);
+            return true;
+        } catch (UIDetachedException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.vaadin.teemu.wizards;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executors for {@link StepTask}s, for the completion stages and for
+ * writing to the state store. Each uses a virtual thread per task when the
+ * Java runtime supports them and otherwise its own bounded pool of daemon
+ * threads, so that long running step tasks cannot hold up completions or
+ * state saves. Tasks started while all pool threads are busy wait in a queue.
+ */
+class StepTaskExecutor {
+
+    /** Maximum number of pool threads when virtual threads are unavailable. */
+    private static final int MAX_POOL_THREADS = Math.max(8, 4 * Runtime
+            .getRuntime().availableProcessors());
+
+    private static final long IDLE_SECONDS = 60;
+
+    private static final Executor DEFAULT = create("wizard-step-task-");
+    private static final Executor COMPLETION = create("wizard-completion-");
+    private static final Executor STATE_STORE = create("wizard-state-store-");
+
+    private StepTaskExecutor() {
+    }
+
+    static Executor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the default executor for the completion stages.
+     */
+    static Executor getCompletionDefault() {
+        return COMPLETION;
+    }
+
+    /**
+     * Returns the default executor for writing to the state store.
+     */
+    static Executor getStateStoreDefault() {
+        return STATE_STORE;
+    }
+
+    private static Executor create(final String threadNamePrefix) {
+        try {
+            // Java 21+, looked up reflectively to run on older runtimes
+            Method factory = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    MAX_POOL_THREADS, MAX_POOL_THREADS, IDLE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    threadNamePrefix + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // no idle threads are kept while no tasks are running
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+}
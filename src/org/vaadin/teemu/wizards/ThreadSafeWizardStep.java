@@ -0,0 +1,14 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * Marker for {@link WizardStep}s whose {@link #onAdvance()} and
+ * {@link #onBack()} methods can safely be called from any thread, outside of
+ * the session lock and concurrently with the same methods of other steps.
+ * When the {@link Wizard} has a parallel validation executor, such steps are
+ * validated in parallel when the user jumps over several steps at once.
+ * 
+ * @see Wizard#setParallelValidationExecutor(java.util.concurrent.ExecutorService)
+ */
+public interface ThreadSafeWizardStep extends WizardStep {
+
+}
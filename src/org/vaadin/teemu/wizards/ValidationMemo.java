@@ -0,0 +1,68 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the data versions with which {@link VersionedWizardStep}s last
+ * allowed navigating forward or backward.
+ */
+@SuppressWarnings("serial")
+class ValidationMemo implements Serializable {
+
+    private final Map<WizardStep, Long> advanceVersions = new IdentityHashMap<WizardStep, Long>();
+    private final Map<WizardStep, Long> backVersions = new IdentityHashMap<WizardStep, Long>();
+
+    /**
+     * Returns {@code true} if the given step has allowed moving in the given
+     * direction with its current data version.
+     */
+    boolean isValidated(WizardStep step, boolean advancing) {
+        Long version = getDataVersion(step);
+        return version != null
+                && version.equals(versions(advancing).get(step));
+    }
+
+    /**
+     * Records the result of asking the given step if it can be left in the
+     * given direction. The version must be read before the step is asked, so
+     * that changes made while the step was being asked are checked again.
+     */
+    void validated(WizardStep step, boolean advancing, boolean allowed,
+            Long version) {
+        if (version == null) {
+            return;
+        }
+        if (allowed) {
+            versions(advancing).put(step, version);
+        } else {
+            versions(advancing).remove(step);
+        }
+    }
+
+    void forget(WizardStep step) {
+        advanceVersions.remove(step);
+        backVersions.remove(step);
+    }
+
+    private Map<WizardStep, Long> versions(boolean advancing) {
+        return advancing ? advanceVersions : backVersions;
+    }
+
+    /**
+     * Returns the data version of the given step or {@code null} if the step
+     * does not report one.
+     */
+    static Long getDataVersion(WizardStep step) {
+        if (step instanceof LazyWizardStep) {
+            LazyWizardStep lazyStep = (LazyWizardStep) step;
+            step = lazyStep.isMaterialized() ? lazyStep.getStep() : null;
+        }
+        if (step instanceof VersionedWizardStep) {
+            return ((VersionedWizardStep) step).getDataVersion();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,25 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * A {@link WizardStep} that reports a version number of its data. The
+ * {@link Wizard} remembers the version with which the step last allowed
+ * navigating forward or backward and does not ask the step again as long as
+ * the version stays the same. This avoids re-running expensive validations of
+ * unchanged steps when jumping over several steps at once.
+ * 
+ * <p>
+ * The version must change whenever anything affecting the result of
+ * {@link #onAdvance()} or {@link #onBack()} changes. Only successful results
+ * are remembered.
+ * </p>
+ */
+public interface VersionedWizardStep extends WizardStep {
+
+    /**
+     * Returns the current version of the data of this WizardStep.
+     * 
+     * @return the current data version.
+     */
+    public long getDataVersion();
+
+}
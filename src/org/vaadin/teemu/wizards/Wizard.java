@@ -1,17 +1,33 @@
 package org.vaadin.teemu.wizards;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectInputValidation;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.vaadin.teemu.wizards.StepTask.NavigationPolicy;
 import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
 import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletionFailedEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletionFailedListener;
 import org.vaadin.teemu.wizards.event.WizardProgressListener;
 import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
 import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+import org.vaadin.teemu.wizards.metrics.StepMetrics.Hook;
+import org.vaadin.teemu.wizards.metrics.WizardMetrics;
+import org.vaadin.teemu.wizards.store.WizardStateStore;
 
 import com.vaadin.server.Page;
 import com.vaadin.server.Page.UriFragmentChangedEvent;
@@ -24,6 +40,9 @@ import com.vaadin.ui.Component;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Panel;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
 
 /**
@@ -52,6 +71,13 @@ import com.vaadin.ui.VerticalLayout;
  * {@link #removeListener(WizardProgressListener)}.
  * </p>
  * 
+ * <p>
+ * Note to subclasses: the protected {@link #steps} and {@link #idMap} fields
+ * are read-only views of the steps. Modifying them directly, as was possible
+ * in earlier versions, throws an {@link UnsupportedOperationException}; use
+ * the {@code addStep} and {@code removeStep} methods instead.
+ * </p>
+ * 
  * @author Teemu Pöntelin / Vaadin Ltd
  */
 @SuppressWarnings("serial")
@@ -71,8 +97,21 @@ public class Wizard extends CustomComponent implements
 
     protected LinkMode currentLinkmode = LinkMode.NONE;
 
-    protected final List<WizardStep> steps = new ArrayList<WizardStep>();
-    protected final Map<String, WizardStep> idMap = new HashMap<String, WizardStep>();
+    private final StepRegistry registry = new StepRegistry();
+
+    /**
+     * The steps of this Wizard in display order. Backed by the internal step
+     * registry and read-only, use {@link #addStep(WizardStep, String)} and
+     * {@link #removeStep(String)} to modify it.
+     */
+    protected final List<WizardStep> steps = registry.steps;
+
+    /**
+     * Steps of this Wizard by their identifiers. Backed by the internal step
+     * registry and read-only, use {@link #addStep(WizardStep, String)} and
+     * {@link #removeStep(String)} to modify it.
+     */
+    protected final Map<String, WizardStep> idMap = registry.idMap;
 
     protected WizardStep currentStep;
     protected WizardStep lastCompletedStep;
@@ -92,10 +131,8 @@ public class Wizard extends CustomComponent implements
 
     private Component progressBar;
 
-    private static final Method WIZARD_ACTIVE_STEP_CHANGED_METHOD;
-    private static final Method WIZARD_STEP_SET_CHANGED_METHOD;
-    private static final Method WIZARD_COMPLETED_METHOD;
-    private static final Method WIZARD_CANCELLED_METHOD;
+    private final WizardListenerRegistry listeners = new WizardListenerRegistry();
+
     private final boolean isHorizontalWizardProgressBar;
     protected boolean hasVerticalStepSpacing;
 
@@ -103,26 +140,52 @@ public class Wizard extends CustomComponent implements
 
     private boolean uriFragmentEnabled = false;
 
-    static {
-        try {
-            WIZARD_COMPLETED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("wizardCompleted",
-                            new Class[] { WizardCompletedEvent.class });
-            WIZARD_STEP_SET_CHANGED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("stepSetChanged",
-                            new Class[] { WizardStepSetChangedEvent.class });
-            WIZARD_ACTIVE_STEP_CHANGED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("activeStepChanged",
-                            new Class[] { WizardStepActivationEvent.class });
-            WIZARD_CANCELLED_METHOD = WizardProgressListener.class
-                    .getDeclaredMethod("wizardCancelled",
-                            new Class[] { WizardCancelledEvent.class });
-        } catch (final java.lang.NoSuchMethodException e) {
-            // This should never happen
-            throw new java.lang.RuntimeException(
-                    "Internal error finding methods in Wizard", e);
-        }
-    }
+    private StepContentCache contentCache;
+
+    private final ValidationMemo validationMemo = new ValidationMemo();
+    private final StepDependencies dependencies = new StepDependencies();
+
+    private transient Executor validationExecutor;
+    private boolean validationPending;
+    // set when a background validation cannot report to a detached UI
+    private volatile boolean validationAbandoned;
+
+    private transient WizardStateStore stateStore;
+    private transient StateStoreWriter stateWriter;
+    private transient Executor stateStoreExecutor;
+    private String stateKey;
+    private boolean restoringState;
+    // identifiers of the steps for the saved states, rebuilt after the step
+    // set has changed
+    private transient String[] stateStepIds;
+
+    private transient ExecutorService parallelValidationExecutor;
+    private transient Map<WizardStep, Future<Boolean>> prefetchedValidations;
+
+    private WizardMetrics metrics;
+
+    private WizardDefinition definition;
+
+    private WizardStepGraph stepGraph;
+
+    private final WizardContext context = new WizardContext();
+    private final Map<WizardStep, WizardContext.Snapshot> contextSnapshots = new IdentityHashMap<WizardStep, WizardContext.Snapshot>();
+    private boolean contextRestoredOnBack;
+
+    private transient Map<WizardStep, StepTask<?>> stepTasks;
+    private transient Executor stepTaskExecutor;
+    private long taskProgressInterval = 250;
+
+    private final List<WizardCompletionStage> completionStages = new ArrayList<WizardCompletionStage>();
+    private final List<WizardCompletionFailedListener> completionFailedListeners = new ArrayList<WizardCompletionFailedListener>();
+    private transient Executor completionExecutor;
+    private boolean completing;
+    // set when the completion stages cannot report to a detached UI
+    private volatile boolean completionAbandoned;
+    // failure of the stages that could not be reported, null on success
+    private volatile Throwable abandonedCompletionFailure;
+    private boolean hasCompleted;
+    private transient long activatedAt;
 
     /**
      * Initializes a new Wizard with a horizontal progress bar
@@ -177,6 +240,27 @@ public class Wizard extends CustomComponent implements
         init();
     }
 
+    /**
+     * Initializes a new Wizard with a horizontal progress bar and the steps
+     * and link mode of the given shared definition. The steps are created
+     * with the factories of the definition when they are first needed, and
+     * their identifiers and captions are read from the definition until steps
+     * are added or removed.
+     * 
+     * @param definition
+     *            the definition, typically shared by all the Wizards of the
+     *            same flow.
+     */
+    public Wizard(WizardDefinition definition) {
+        this();
+        this.definition = definition;
+        setLinkMode(definition.getLinkMode());
+        if (definition.getStepCount() > 0) {
+            registry.setDefinition(definition);
+            stepSetChanged();
+        }
+    }
+
     private void init() {
 
         if (isHorizontalWizardProgressBar) {
@@ -293,13 +377,43 @@ public class Wizard extends CustomComponent implements
         }
 
         // at this point enabled != uriFragmentEnabled
-        if (enabled) {
-            Page.getCurrent().addUriFragmentChangedListener(this);
-        } else {
-            Page.getCurrent().removeUriFragmentChangedListener(this);
+        uriFragmentEnabled = enabled;
+
+        // if not attached yet, the listener is added in attach()
+        if (isAttached()) {
+            Page page = getPage();
+            if (enabled) {
+                page.addUriFragmentChangedListener(this);
+            } else {
+                page.removeUriFragmentChangedListener(this);
+            }
         }
+    }
 
-        uriFragmentEnabled = enabled;
+    @Override
+    public void attach() {
+        super.attach();
+        if (uriFragmentEnabled) {
+            getPage().addUriFragmentChangedListener(this);
+        }
+        applyAbandonedWork();
+    }
+
+    @Override
+    public void detach() {
+        if (uriFragmentEnabled) {
+            getPage().removeUriFragmentChangedListener(this);
+        }
+        super.detach();
+    }
+
+    /**
+     * Returns the page of the UI this Wizard is attached to or {@code null}
+     * if not attached.
+     */
+    private Page getPage() {
+        UI ui = getUI();
+        return ui != null ? ui.getPage() : null;
     }
 
     public boolean isUriFragmentEnabled() {
@@ -364,22 +478,290 @@ public class Wizard extends CustomComponent implements
      * @param id
      * @throws IllegalStateException
      *             if the given {@code id} already exists.
+     * @throws IllegalArgumentException
+     *             if the given step has already been added.
      */
     public void addStep(WizardStep step, String id) {
-        if (idMap.containsKey(id)) {
+        checkNoStepGraph();
+        checkIdIsUnique(id);
+        checkStepsAreNew(Collections.singleton(step), steps.size());
+
+        registry.add(step, id);
+        stepSetChanged();
+    }
+
+    /**
+     * Adds a step to this Wizard that is created with the given factory only
+     * when the user first navigates to it. Until then the step is represented
+     * by a {@link LazyWizardStep} with the given caption, which is also the
+     * instance returned by {@link #getSteps()}.
+     * 
+     * @param factory
+     *            factory creating the actual step.
+     * @param caption
+     *            caption of the step.
+     * @param id
+     *            unique identifier of the step.
+     * @throws IllegalArgumentException
+     *             if the given {@code id} already exists.
+     */
+    public void addStep(WizardStepFactory factory, String caption, String id) {
+        addStep(new LazyWizardStep(caption, factory), id);
+    }
+
+    /**
+     * Adds all the given steps to the end of this Wizard in the order they are
+     * given. The steps will be assigned identifiers automatically. Listeners
+     * are notified only once after all the steps have been added.
+     * 
+     * @param stepsToAdd
+     * @see #addStep(WizardStep)
+     */
+    public void addSteps(WizardStep... stepsToAdd) {
+        insertSteps(steps.size(), stepsToAdd);
+    }
+
+    /**
+     * Adds all the given steps to the end of this Wizard in the iteration
+     * order of the given map, using the keys of the map as step identifiers.
+     * Either all of the steps are added or, if any of the identifiers already
+     * exists, none of them and an {@link IllegalArgumentException} is thrown.
+     * Listeners are notified only once after all the steps have been added.
+     * 
+     * @param stepsById
+     *            steps to add keyed by their identifiers, typically a
+     *            {@link LinkedHashMap}.
+     * @throws IllegalArgumentException
+     *             if any of the given identifiers already exists.
+     * @see #addStep(WizardStep, String)
+     */
+    public void addSteps(Map<String, ? extends WizardStep> stepsById) {
+        insertSteps(steps.size(), stepsById);
+    }
+
+    /**
+     * Inserts the given steps at the given position of this Wizard. The steps
+     * will be assigned identifiers automatically. Listeners are notified only
+     * once after all the steps have been inserted.
+     * 
+     * @param index
+     *            position of the first inserted step.
+     * @param stepsToInsert
+     * @see #insertSteps(int, Map)
+     */
+    public void insertSteps(int index, WizardStep... stepsToInsert) {
+        Map<String, WizardStep> stepsById = new LinkedHashMap<String, WizardStep>();
+        int nextIndex = stepIndex;
+        for (WizardStep step : stepsToInsert) {
+            stepsById.put("wizard-step-" + nextIndex++, step);
+        }
+        insertSteps(index, stepsById);
+        stepIndex = nextIndex;
+    }
+
+    /**
+     * Inserts the given steps at the given position of this Wizard in the
+     * iteration order of the given map, using the keys of the map as step
+     * identifiers. Steps cannot be inserted before or at the position of the
+     * currently active step, as that would change which steps are completed.
+     * Either all of the steps are inserted or none of them. Listeners are
+     * notified only once after all the steps have been inserted.
+     * 
+     * @param index
+     *            position of the first inserted step.
+     * @param stepsById
+     *            steps to insert keyed by their identifiers, typically a
+     *            {@link LinkedHashMap}.
+     * @throws IllegalArgumentException
+     *             if any of the given identifiers already exists.
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range.
+     * @throws IllegalStateException
+     *             if the index is not after the currently active step.
+     */
+    public void insertSteps(int index,
+            Map<String, ? extends WizardStep> stepsById) {
+        checkNoStepGraph();
+        if (index < 0 || index > steps.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + steps.size());
+        }
+        if (index <= registry.indexOf(currentStep)) {
+            throw new IllegalStateException(
+                    "Steps cannot be inserted before the currently active step.");
+        }
+        for (String id : stepsById.keySet()) {
+            checkIdIsUnique(id);
+        }
+        checkStepsAreNew(stepsById.values(), steps.size());
+        if (stepsById.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, ? extends WizardStep> entry : stepsById
+                .entrySet()) {
+            registry.insert(index++, entry.getValue(), entry.getKey());
+        }
+        stepSetChanged();
+    }
+
+    /**
+     * Replaces all the steps following the currently active step with the
+     * given steps, using the keys of the map as step identifiers. Completed
+     * steps and the currently active step are kept. Listeners are notified
+     * only once after the step set has been replaced.
+     * 
+     * @param stepsById
+     *            the new steps keyed by their identifiers, typically a
+     *            {@link LinkedHashMap}.
+     * @throws IllegalArgumentException
+     *             if any of the given identifiers is used by a step that is
+     *             kept.
+     */
+    public void replaceSteps(Map<String, ? extends WizardStep> stepsById) {
+        checkNoStepGraph();
+        int firstReplaced = registry.indexOf(currentStep) + 1;
+        for (String id : stepsById.keySet()) {
+            WizardStep existing = registry.get(id);
+            if (existing != null && registry.indexOf(existing) < firstReplaced) {
+                checkIdIsUnique(id);
+            }
+        }
+        checkStepsAreNew(stepsById.values(), firstReplaced);
+
+        while (steps.size() > firstReplaced) {
+            unregister(registry.getId(steps.get(steps.size() - 1)), true);
+        }
+        int index = firstReplaced;
+        for (Map.Entry<String, ? extends WizardStep> entry : stepsById
+                .entrySet()) {
+            registry.insert(index++, entry.getValue(), entry.getKey());
+        }
+        stepSetChanged();
+    }
+
+    /**
+     * Removes the step with the given id from the registry and the state
+     * kept for it. The declared dependencies of the step are only forgotten
+     * if the step is removed from this Wizard for good.
+     */
+    private void unregister(String id, boolean forgetDependencies) {
+        WizardStep step = registry.remove(id);
+        if (step != null) {
+            if (step == lastCompletedStep) {
+                // the steps after the active one are the only ones that can
+                // be removed, so the active step is now the furthest one
+                lastCompletedStep = registry.contains(currentStep) ? currentStep
+                        : null;
+            }
+            validationMemo.forget(step);
+            if (forgetDependencies) {
+                dependencies.forget(id);
+            } else {
+                dependencies.forgetValidation(id);
+            }
+            contextSnapshots.remove(step);
+            cancelStepTask(step);
+            if (contentCache != null) {
+                contentCache.remove(step);
+            }
+        }
+    }
+
+    private void checkNoStepGraph() {
+        if (stepGraph != null) {
+            throw new IllegalStateException(
+                    "The steps of a Wizard using a step graph are determined by the graph.");
+        }
+    }
+
+    /**
+     * Uses the resolved path of the given graph as the steps of this Wizard.
+     * The steps follow the path from then on: when a guard input of the graph
+     * changes, the steps after the active step are updated with a single
+     * {@link WizardStepSetChangedEvent}. Steps cannot be added or removed
+     * directly while a graph is used.
+     * 
+     * @param graph
+     *            the graph, which cannot be shared with other Wizards.
+     * @throws IllegalStateException
+     *             if this Wizard already has steps or the graph is invalid.
+     */
+    public void setStepGraph(WizardStepGraph graph) {
+        if (stepGraph != null || !steps.isEmpty()) {
+            throw new IllegalStateException(
+                    "A step graph can only be set to a Wizard without steps.");
+        }
+        graph.attach(this);
+        stepGraph = graph;
+        applyStepGraph();
+    }
+
+    public WizardStepGraph getStepGraph() {
+        return stepGraph;
+    }
+
+    /**
+     * Replaces the steps from the first position where the resolved path of
+     * the step graph changed.
+     */
+    void applyStepGraph() {
+        int changed = stepGraph.resolve(registry.indexOf(currentStep));
+        if (changed < 0) {
+            return;
+        }
+        while (steps.size() > changed) {
+            // the steps of the dropped branch may come back with their
+            // declared dependencies
+            unregister(registry.getId(steps.get(steps.size() - 1)), false);
+        }
+        List<String> path = stepGraph.getPath();
+        for (int i = changed; i < path.size(); i++) {
+            String id = path.get(i);
+            registry.add(stepGraph.getStep(id), id);
+        }
+        stepSetChanged();
+    }
+
+    /**
+     * Checks that none of the given step instances is given twice or is one
+     * of the first {@code keptCount} steps of this Wizard.
+     */
+    private void checkStepsAreNew(Collection<? extends WizardStep> newSteps,
+            int keptCount) {
+        Set<WizardStep> seen = Collections
+                .newSetFromMap(new IdentityHashMap<WizardStep, Boolean>());
+        for (WizardStep step : newSteps) {
+            int index = registry.indexOf(step);
+            if ((index >= 0 && index < keptCount) || !seen.add(step)) {
+                throw new IllegalArgumentException(
+                        "The same step instance cannot be added twice.");
+            }
+        }
+    }
+
+    private void checkIdIsUnique(String id) {
+        if (registry.containsId(id)) {
             throw new IllegalArgumentException(
                     String.format(
                             "A step with given id %s already exists. You must use unique identifiers for the steps.",
                             id));
         }
+    }
 
-        steps.add(step);
-        idMap.put(id, step);
-        progressBar.markAsDirty();
+    /**
+     * Updates the progress bar and buttons and notifies the listeners after
+     * the set of steps has changed.
+     */
+    private void stepSetChanged() {
+        stateStepIds = null;
+        if (progressBar != null) {
+            progressBar.markAsDirty();
+        }
         updateButtons();
 
         // notify listeners
-        fireEvent(new WizardStepSetChangedEvent(this));
+        fireStepSetChanged();
 
         // This was formerly under paintContent in V6. Activating the initial
         // step
@@ -417,26 +799,128 @@ public class Wizard extends CustomComponent implements
         addStep(step, "wizard-step-" + stepIndex++);
     }
 
+    /**
+     * Adds a listener for the progress of this Wizard with the default
+     * priority zero.
+     * 
+     * @param listener
+     * @see #addListener(WizardProgressListener, int)
+     */
     public void addListener(WizardProgressListener listener) {
-        addListener(WizardCompletedEvent.class, listener,
-                WIZARD_COMPLETED_METHOD);
-        addListener(WizardStepActivationEvent.class, listener,
-                WIZARD_ACTIVE_STEP_CHANGED_METHOD);
-        addListener(WizardStepSetChangedEvent.class, listener,
-                WIZARD_STEP_SET_CHANGED_METHOD);
-        addListener(WizardCancelledEvent.class, listener,
-                WIZARD_CANCELLED_METHOD);
+        addListener(listener, 0);
+    }
+
+    /**
+     * Adds a listener for the progress of this Wizard. Listeners with a higher
+     * priority are notified before listeners with a lower priority. Listeners
+     * with the same priority are notified in the order they were added.
+     * Adding a listener that is already registered has no effect.
+     * 
+     * @param listener
+     * @param priority
+     *            the priority of the listener.
+     */
+    public void addListener(WizardProgressListener listener, int priority) {
+        listeners.add(listener, priority, false);
+    }
+
+    /**
+     * Adds a listener that is notified asynchronously through the
+     * {@link AsyncListenerDelivery} of this Wizard instead of during the
+     * request. The events are delivered to asynchronous listeners in the
+     * order they occurred, without holding the session lock.
+     * 
+     * @param listener
+     * @throws IllegalStateException
+     *             if no asynchronous delivery has been set.
+     * @see #setAsyncListenerDelivery(AsyncListenerDelivery)
+     */
+    public void addAsyncListener(WizardProgressListener listener) {
+        if (listeners.getAsyncDelivery() == null) {
+            throw new IllegalStateException(
+                    "Asynchronous listener delivery must be set before adding asynchronous listeners.");
+        }
+        listeners.add(listener, 0, true);
+    }
+
+    /**
+     * Sets the delivery used for notifying listeners added with
+     * {@link #addAsyncListener(WizardProgressListener)}. The delivery is not
+     * serialized with this Wizard. Asynchronous listeners are notified
+     * synchronously while no delivery is set.
+     * 
+     * @param delivery
+     *            the delivery for asynchronous listeners or {@code null}.
+     */
+    public void setAsyncListenerDelivery(AsyncListenerDelivery delivery) {
+        listeners.setAsyncDelivery(delivery);
+    }
+
+    public AsyncListenerDelivery getAsyncListenerDelivery() {
+        return listeners.getAsyncDelivery();
     }
 
     public void removeListener(WizardProgressListener listener) {
-        removeListener(WizardCompletedEvent.class, listener,
-                WIZARD_COMPLETED_METHOD);
-        removeListener(WizardStepActivationEvent.class, listener,
-                WIZARD_ACTIVE_STEP_CHANGED_METHOD);
-        removeListener(WizardStepSetChangedEvent.class, listener,
-                WIZARD_STEP_SET_CHANGED_METHOD);
-        removeListener(WizardCancelledEvent.class, listener,
-                WIZARD_CANCELLED_METHOD);
+        listeners.remove(listener);
+    }
+
+    /*
+     * The events are passed to the WizardProgressListeners directly. They are
+     * also fired through the event router of the component if someone listens
+     * to them there, and are not created at all if nobody listens.
+     */
+
+    private boolean hasRouterListeners(Class<?> eventType) {
+        return hasListeners(eventType) || hasListeners(Component.Event.class);
+    }
+
+    private void fireActiveStepChanged(WizardStep step) {
+        boolean routed = hasRouterListeners(WizardStepActivationEvent.class);
+        if (listeners.isEmpty() && !routed) {
+            return;
+        }
+        WizardStepActivationEvent event = new WizardStepActivationEvent(this,
+                step);
+        listeners.activeStepChanged(event);
+        if (routed) {
+            fireEvent(event);
+        }
+    }
+
+    private void fireStepSetChanged() {
+        boolean routed = hasRouterListeners(WizardStepSetChangedEvent.class);
+        if (listeners.isEmpty() && !routed) {
+            return;
+        }
+        WizardStepSetChangedEvent event = new WizardStepSetChangedEvent(this);
+        listeners.stepSetChanged(event);
+        if (routed) {
+            fireEvent(event);
+        }
+    }
+
+    private void fireWizardCompleted() {
+        boolean routed = hasRouterListeners(WizardCompletedEvent.class);
+        if (listeners.isEmpty() && !routed) {
+            return;
+        }
+        WizardCompletedEvent event = new WizardCompletedEvent(this);
+        listeners.wizardCompleted(event);
+        if (routed) {
+            fireEvent(event);
+        }
+    }
+
+    private void fireWizardCancelled() {
+        boolean routed = hasRouterListeners(WizardCancelledEvent.class);
+        if (listeners.isEmpty() && !routed) {
+            return;
+        }
+        WizardCancelledEvent event = new WizardCancelledEvent(this);
+        listeners.wizardCancelled(event);
+        if (routed) {
+            fireEvent(event);
+        }
     }
 
     public List<WizardStep> getSteps() {
@@ -451,7 +935,88 @@ public class Wizard extends CustomComponent implements
      * @return {@code true} if the given step is already completed.
      */
     public boolean isCompleted(WizardStep step) {
-        return steps.indexOf(step) < steps.indexOf(currentStep);
+        return registry.indexOf(step) < registry.indexOf(currentStep)
+                && !isStale(step);
+    }
+
+    /**
+     * Declares that the data of the given step depends on the data of the
+     * given upstream steps, which should implement
+     * {@link VersionedWizardStep}. When the data version of an upstream step
+     * changes after the step has allowed advancing, the step is no longer
+     * considered completed and is asked again with
+     * {@link WizardStep#onAdvance()} when it is passed. Steps depending on
+     * such a step are affected as well, other steps stay completed.
+     * 
+     * <p>
+     * With a step graph, the dependencies can be declared for any step of
+     * the graph, also for steps not on the current path. They are kept when
+     * the path changes.
+     * </p>
+     * 
+     * @param stepId
+     *            identifier of the dependent step.
+     * @param upstreamIds
+     *            identifiers of the steps it depends on, none to remove the
+     *            dependencies.
+     * @throws IllegalArgumentException
+     *             if the given step does not exist.
+     */
+    public void setStepDependencies(String stepId, String... upstreamIds) {
+        boolean exists = stepGraph != null ? stepGraph.getStep(stepId) != null
+                : registry.containsId(stepId);
+        if (!exists) {
+            throw new IllegalArgumentException("No step with id " + stepId);
+        }
+        dependencies.setDependencies(stepId, upstreamIds);
+        if (progressBar != null) {
+            progressBar.markAsDirty();
+        }
+    }
+
+    public String[] getStepDependencies(String stepId) {
+        return dependencies.getDependencies(stepId);
+    }
+
+    /**
+     * Returns {@code true} if data the given step depends on has changed
+     * since the step last allowed advancing.
+     * 
+     * @param step
+     * @return {@code true} if the step needs to be validated again.
+     * @see #setStepDependencies(String, String...)
+     */
+    public boolean isStale(WizardStep step) {
+        if (dependencies.isEmpty()) {
+            return false;
+        }
+        String id = registry.getId(step);
+        return id != null && dependencies.isStale(id, registry);
+    }
+
+    /**
+     * Returns {@code true} if some step has declared dependencies, in which
+     * case any step may become stale without being navigated to.
+     */
+    boolean hasStepDependencies() {
+        return !dependencies.isEmpty();
+    }
+
+    /**
+     * Returns the positions of the stale steps before the given position in
+     * no particular order. Only the steps with declared dependencies can be
+     * stale, so the other steps are not checked.
+     */
+    List<Integer> getStaleStepIndices(int before) {
+        List<Integer> stale = new ArrayList<Integer>(0);
+        for (String id : dependencies.getDependentIds()) {
+            int index = registry.indexOf(registry.get(id));
+            if (index >= 0 && index < before
+                    && dependencies.isStale(id, registry)) {
+                stale.add(index);
+            }
+        }
+        return stale;
     }
 
     /**
@@ -466,6 +1031,16 @@ public class Wizard extends CustomComponent implements
     }
 
     private void updateButtons() {
+        if (isNavigationLocked()) {
+            // no navigation until the pending validation or completion has
+            // finished
+            finishButton.setEnabled(false);
+            nextButton.setEnabled(false);
+            backButton.setEnabled(false);
+            cancelButton.setEnabled(false);
+            return;
+        }
+        cancelButton.setEnabled(true);
         if (isLastStep(currentStep)) {
             finishButton.setEnabled(true || currentLinkmode == LinkMode.ALL);
             nextButton.setEnabled(false);
@@ -474,6 +1049,20 @@ public class Wizard extends CustomComponent implements
             nextButton.setEnabled(true);
         }
         backButton.setEnabled(!isFirstStep(currentStep));
+
+        StepTask<?> task = getStepTask(currentStep);
+        if (task != null) {
+            if (task.blocksLeaving(true)) {
+                finishButton.setEnabled(false);
+                nextButton.setEnabled(false);
+            }
+            if (task.blocksLeaving(false)) {
+                backButton.setEnabled(false);
+            }
+        }
+        if (hasCompleted) {
+            finishButton.setEnabled(false);
+        }
     }
 
     public Button getNextButton() {
@@ -498,30 +1087,30 @@ public class Wizard extends CustomComponent implements
         }
 
         if (currentStep != null) {
-            if (currentStep.equals(step)) {
+            if (currentStep == step) {
                 // already active
                 return false;
             }
 
             // ask if we're allowed to move
-            boolean advancing = steps.indexOf(step) > steps
-                    .indexOf(currentStep);
+            int targetIndex = registry.indexOf(step);
+            boolean advancing = targetIndex > registry.indexOf(currentStep);
 
             // TODO TODO. Here, replace currentStep with stepIndex - 1 or
             // stepIndex + 1, since that would be the currentStep if just
             // jumping one step anyways
 
             if (advancing) {
-                WizardStep curr = steps.get(steps.indexOf(step) - 1); // "current"
-                                                                      // step
-                if (!curr.onAdvance()) {
+                // "current" step
+                WizardStep curr = steps.get(targetIndex - 1);
+                if (!isLeaveAllowed(curr, true)) {
                     // not allowed to advance
                     return false;
                 }
             } else {
-                WizardStep curr = steps.get(steps.indexOf(step) + 1); // "current"
-                                                                      // step
-                if (!curr.onBack()) {
+                // "current" step
+                WizardStep curr = steps.get(targetIndex + 1);
+                if (!isLeaveAllowed(curr, false)) {
                     // uriFragment.setF
                     // not allowed to go back
                     return false;
@@ -533,119 +1122,833 @@ public class Wizard extends CustomComponent implements
     }
 
     /**
-     * At this point, no check will be made. The step will be activated. Call
-     * checkCanStepBeActivated first
-     * 
-     * @param step
+     * Asks the given step if the user is allowed to leave it in the given
+     * direction. The step is not asked again if it is a
+     * {@link VersionedWizardStep} that already allowed this with its current
+     * data version. The result of an {@link AsyncWizardStep} is waited for
+     * during the current request.
      */
-    protected void activateStep(WizardStep step) {
+    private boolean isLeaveAllowed(WizardStep step, boolean advancing) {
+        if (isBlockedByTask(step, advancing)) {
+            return false;
+        }
+        if (isValidationCurrent(step, advancing)) {
+            return true;
+        }
+        Future<Boolean> prefetched = null;
+        if (prefetchedValidations != null) {
+            prefetched = prefetchedValidations.remove(step);
+        }
+        Long version = ValidationMemo.getDataVersion(step);
+        long start = metrics != null ? System.nanoTime() : 0;
+        boolean allowed;
+        if (prefetched != null) {
+            allowed = awaitValidation(prefetched);
+        } else if (unwrap(step) instanceof AsyncWizardStep) {
+            allowed = awaitValidation(startAsyncValidation(
+                    (AsyncWizardStep) unwrap(step), advancing));
+        } else {
+            allowed = advancing ? step.onAdvance() : step.onBack();
+        }
+        if (metrics != null) {
+            recordValidation(step, advancing, allowed, start);
+        }
+        validated(step, advancing, allowed, version);
+        return allowed;
+    }
 
-        if (currentStep != null) {
-            // keep track of the last step that was completed
-            int currentIndex = steps.indexOf(currentStep);
-            // lastCompletedStep will not be changed if going backwards
-            if (lastCompletedStep == null
-                    || steps.indexOf(lastCompletedStep) < currentIndex) {
-                lastCompletedStep = currentStep;
+    /**
+     * Returns {@code true} if the given step has already allowed moving in
+     * the given direction and nothing it depends on has changed since.
+     */
+    private boolean isValidationCurrent(WizardStep step, boolean advancing) {
+        return validationMemo.isValidated(step, advancing)
+                && !isStale(step);
+    }
+
+    private void validated(WizardStep step, boolean advancing,
+            boolean allowed, Long version) {
+        validationMemo.validated(step, advancing, allowed, version);
+        if (advancing && allowed && !dependencies.isEmpty()) {
+            String id = registry.getId(step);
+            if (id != null) {
+                dependencies.validated(id, registry);
             }
         }
+    }
 
-        contentPanel.setContent(step.getContent());
-        currentStep = step;
+    private void recordValidation(WizardStep step, boolean advancing,
+            boolean allowed, long start) {
+        String id = getId(step);
+        if (id != null) {
+            metrics.recordHook(id, advancing ? Hook.ON_ADVANCE : Hook.ON_BACK,
+                    System.nanoTime() - start);
+            if (!allowed) {
+                metrics.recordRejection(id);
+            }
+        }
+    }
 
-        updateUriFragment();
-        updateButtons();
-        step.onActivate(); // Extra feature
-        fireEvent(new WizardStepActivationEvent(this, step));
+    private Future<Boolean> startAsyncValidation(AsyncWizardStep step,
+            boolean advancing) {
+        return advancing ? step.onAdvanceAsync() : step.onBackAsync();
+    }
+
+    private boolean awaitValidation(Future<Boolean> validation) {
+        try {
+            return Boolean.TRUE.equals(validation.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Step validation failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given step is validated in the background
+     * instead of during the current request.
+     */
+    private boolean isValidatedInBackground(WizardStep step,
+            boolean advancing) {
+        return unwrap(step) instanceof AsyncWizardStep
+                && validationExecutor != null
+                && getUI() != null && !isBlockedByTask(step, advancing)
+                && !isValidationCurrent(step, advancing);
+    }
+
+    /**
+     * Callback for the result of a navigation check.
+     */
+    private interface ValidationCallback {
+        void validated(boolean allowed);
+    }
+
+    /**
+     * Asks the given step if the user is allowed to leave it in the given
+     * direction and passes the result to the callback. Results of
+     * {@link AsyncWizardStep}s are waited for with the validation executor,
+     * in which case this Wizard stays in pending state until the callback has
+     * been run while holding the session lock.
+     */
+    private void validateLeaving(final WizardStep step,
+            final boolean advancing, final ValidationCallback callback) {
+        if (!isValidatedInBackground(step, advancing)) {
+            callback.validated(isLeaveAllowed(step, advancing));
+            return;
+        }
+
+        final UI ui = getUI();
+        // edits made while the validation is pending are checked again
+        final Long version = ValidationMemo.getDataVersion(step);
+        final long start = metrics != null ? System.nanoTime() : 0;
+        final Future<Boolean> validation = startAsyncValidation(
+                (AsyncWizardStep) unwrap(step), advancing);
+        setValidationPending(true);
+        try {
+            validationExecutor.execute(new Runnable() {
+                public void run() {
+                    boolean allowed = false;
+                    RuntimeException failure = null;
+                    try {
+                        allowed = awaitValidation(validation);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    final boolean result = allowed;
+                    final RuntimeException error = failure;
+                    try {
+                        ui.access(new Runnable() {
+                            public void run() {
+                                setValidationPending(false);
+                                if (error != null) {
+                                    throw error;
+                                }
+                                if (metrics != null) {
+                                    recordValidation(step, advancing, result,
+                                            start);
+                                }
+                                validated(step, advancing, result, version);
+                                callback.validated(result);
+                            }
+                        });
+                    } catch (UIDetachedException e) {
+                        // reset in resetAbandonedWork() with the session lock
+                        validationAbandoned = true;
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // for example rejected by the executor
+            validation.cancel(true);
+            setValidationPending(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns {@code true} if navigation is not possible because a background
+     * validation or the completion pipeline is running.
+     */
+    private boolean isNavigationLocked() {
+        // abandoned work is applied by the next navigation
+        return isValidationPending() || isCompleting();
+    }
+
+    /**
+     * Applies the outcome of background work that could not be reported, see
+     * {@link #resetAbandonedWork()}, and updates the buttons. As this may fire
+     * events, it is only called at the start of the navigation methods and on
+     * attach, never in the middle of other changes.
+     */
+    private void applyAbandonedWork() {
+        if (resetAbandonedWork()) {
+            updateButtons();
+        }
+    }
+
+    /**
+     * Leaves the pending state of background work that finished while the UI
+     * of this Wizard was detached or missing and could not be reported. The
+     * outcome of completion stages that already ran is applied, so they are
+     * not run again by the next finish.
+     * 
+     * @return {@code true} if some pending state was left.
+     */
+    private boolean resetAbandonedWork() {
+        boolean reset = false;
+        if (validationAbandoned) {
+            validationAbandoned = false;
+            validationPending = false;
+            removeStyleName("pending");
+            reset = true;
+        }
+        if (completionAbandoned) {
+            Throwable failure = abandonedCompletionFailure;
+            abandonedCompletionFailure = null;
+            completionAbandoned = false;
+            completionFinished(failure);
+            reset = true;
+        }
+        return reset;
+    }
+
+    /**
+     * The executors running a pending validation or the completion stages are
+     * not serialized, so that work never reports to the deserialized Wizard
+     * and its pending or completing state is left. This is done once the
+     * whole graph has been read, as the buttons and the UI may not be
+     * complete yet when this Wizard is. Completion stages may have run
+     * without being reported, so finishing runs them again.
+     */
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        if (isValidationPending() || isCompleting()) {
+            in.registerValidation(new ObjectInputValidation() {
+                public void validateObject() {
+                    if (isValidationPending()) {
+                        setValidationPending(false);
+                    }
+                    if (isCompleting()) {
+                        setCompleting(false);
+                    }
+                }
+            }, 0);
+        }
+    }
+
+    private void setValidationPending(boolean pending) {
+        validationPending = pending;
+        if (pending) {
+            addStyleName("pending");
+        } else {
+            removeStyleName("pending");
+        }
+        updateButtons();
+    }
+
+    /**
+     * Returns {@code true} if this Wizard is waiting for the result of an
+     * asynchronous step validation. Navigation requests made while a
+     * validation is pending are ignored.
+     * 
+     * @return {@code true} if a step validation is pending.
+     * @see AsyncWizardStep
+     */
+    public boolean isValidationPending() {
+        return validationPending && !validationAbandoned;
+    }
+
+    /**
+     * Sets the {@link Executor} used for waiting the results of
+     * {@link AsyncWizardStep} validations outside of the request. The result
+     * is applied through {@link UI#access(Runnable)}, so server push or
+     * polling should be enabled for the UI to show it without further user
+     * interaction. Set to {@code null} (the default) to wait for the results
+     * during the request. The executor is not serialized with this Wizard and
+     * must be set again after deserialization.
+     * 
+     * @param executor
+     *            executor for waiting the validation results or {@code null}.
+     */
+    public void setValidationExecutor(Executor executor) {
+        validationExecutor = executor;
+    }
+
+    public Executor getValidationExecutor() {
+        return validationExecutor;
+    }
+
+    /**
+     * Sets the {@link ExecutorService} used for validating
+     * {@link ThreadSafeWizardStep}s in parallel when the user jumps over
+     * several steps at once, for example when clicking a distant step in the
+     * progress bar or finishing in {@link LinkMode#ALL}. The results are
+     * still processed in step order, so the first step not allowing to move
+     * on is the one activated. Set to {@code null} (the default) to validate
+     * all steps one after another. The executor is not serialized with this
+     * Wizard and must be set again after deserialization.
+     * 
+     * @param executor
+     *            executor for parallel validation or {@code null}.
+     */
+    public void setParallelValidationExecutor(ExecutorService executor) {
+        parallelValidationExecutor = executor;
+    }
+
+    public ExecutorService getParallelValidationExecutor() {
+        return parallelValidationExecutor;
+    }
+
+    /**
+     * Starts validating the {@link ThreadSafeWizardStep}s to be left when
+     * moving from the given index to the target index with the parallel
+     * validation executor.
+     */
+    private void prefetchValidations(int index, int targetIndex) {
+        if (parallelValidationExecutor == null
+                || Math.abs(targetIndex - index) < 2) {
+            return;
+        }
+        final boolean advancing = targetIndex > index;
+        int inc = advancing ? 1 : -1;
+        for (; index != targetIndex; index += inc) {
+            final WizardStep step = steps.get(index);
+            if (isThreadSafe(step) && !isValidationCurrent(step, advancing)) {
+                if (prefetchedValidations == null) {
+                    prefetchedValidations = new IdentityHashMap<WizardStep, Future<Boolean>>();
+                }
+                prefetchedValidations.put(step,
+                        parallelValidationExecutor
+                                .submit(new Callable<Boolean>() {
+                                    public Boolean call() {
+                                        return advancing ? step.onAdvance()
+                                                : step.onBack();
+                                    }
+                                }));
+            }
+        }
+    }
+
+    private void discardPrefetchedValidations() {
+        if (prefetchedValidations != null) {
+            for (Future<Boolean> validation : prefetchedValidations.values()) {
+                validation.cancel(true);
+            }
+            prefetchedValidations = null;
+        }
+    }
+
+    private boolean isThreadSafe(WizardStep step) {
+        step = unwrap(step);
+        return step instanceof ThreadSafeWizardStep
+                && !(step instanceof AsyncWizardStep);
+    }
+
+    /**
+     * Returns the step created by the given {@link LazyWizardStep}, or the
+     * given step itself if it is not lazy. Returns {@code null} for a lazy
+     * step that has not been created yet, as it is not created just for
+     * checking its type.
+     */
+    private static WizardStep unwrap(WizardStep step) {
+        if (step instanceof LazyWizardStep) {
+            LazyWizardStep lazyStep = (LazyWizardStep) step;
+            return lazyStep.isMaterialized() ? lazyStep.getStep() : null;
+        }
+        return step;
+    }
+
+    /**
+     * At this point, no check will be made. The step will be activated. Call
+     * checkCanStepBeActivated first
+     * 
+     * @param step
+     */
+    protected void activateStep(WizardStep step) {
+        snapshotContext(step);
+        StepTask<?> task = getStepTask(currentStep);
+        if (task != null && currentStep != step
+                && task.getNavigationPolicy() == NavigationPolicy.CANCEL_ON_LEAVE) {
+            task.cancel();
+        }
+
+        if (currentStep != null) {
+            // keep track of the last step that was completed
+            int currentIndex = registry.indexOf(currentStep);
+            // lastCompletedStep will not be changed if going backwards
+            if (lastCompletedStep == null
+                    || registry.indexOf(lastCompletedStep) < currentIndex) {
+                lastCompletedStep = currentStep;
+            }
+        }
+
+        if (metrics != null) {
+            recordDwell();
+        }
+        long start = metrics != null ? System.nanoTime() : 0;
+        contentPanel.setContent(getContent(step));
+        if (metrics != null) {
+            metrics.recordHook(getId(step), Hook.GET_CONTENT,
+                    System.nanoTime() - start);
+        }
+        currentStep = step;
+        resolveStepGraph();
+
+        updateUriFragment();
+        updateButtons();
+        start = metrics != null ? System.nanoTime() : 0;
+        step.onActivate(); // Extra feature
+        if (metrics != null) {
+            String id = getId(step);
+            activatedAt = System.nanoTime();
+            metrics.recordHook(id, Hook.ON_ACTIVATE, activatedAt - start);
+            metrics.recordTransition(id);
+        }
+        fireActiveStepChanged(step);
+        saveState();
+    }
+
+    /**
+     * Takes a snapshot of the context when entering the given step, or
+     * restores the snapshot taken when it was entered if moving back to it.
+     */
+    private void snapshotContext(WizardStep step) {
+        boolean back = currentStep != null
+                && registry.indexOf(step) < registry.indexOf(currentStep);
+        if (back) {
+            WizardContext.Snapshot snapshot = contextSnapshots.get(step);
+            if (contextRestoredOnBack && snapshot != null) {
+                context.restore(snapshot);
+            }
+        } else {
+            contextSnapshots.put(step, context.snapshot());
+        }
+    }
+
+    /**
+     * Starts running the given task for the given step in the background.
+     * Only one task can run per step at a time. The optional progress
+     * indicator is updated as the task reports its progress, at most once
+     * per progress interval. The navigation policy decides whether the step
+     * can be left while the task is running.
+     * 
+     * @param step
+     *            the step the task belongs to.
+     * @param task
+     *            the task to run.
+     * @param indicator
+     *            progress indicator in the step or {@code null}.
+     * @param policy
+     *            how the running task affects navigation.
+     * @return the started task.
+     * @throws IllegalStateException
+     *             if the step already has a running task or the task has
+     *             been started before.
+     * @see #setStepTaskExecutor(Executor)
+     * @see #setTaskProgressInterval(long)
+     */
+    public <T> StepTask<T> startStepTask(WizardStep step, StepTask<T> task,
+            ProgressBar indicator, NavigationPolicy policy) {
+        if (!registry.contains(step)) {
+            throw new IllegalArgumentException(
+                    "The step is not part of this Wizard.");
+        }
+        if (getStepTask(step) != null) {
+            throw new IllegalStateException(
+                    "The step already has a running task.");
+        }
+        if (stepTasks == null) {
+            stepTasks = new IdentityHashMap<WizardStep, StepTask<?>>();
+        }
+        stepTasks.put(step, task);
+        try {
+            task.start(this, step, getUI(), indicator, policy,
+                    taskProgressInterval * 1000000L, getStepTaskExecutor());
+        } catch (RuntimeException e) {
+            stepTasks.remove(step);
+            throw e;
+        }
+        updateButtons();
+        return task;
+    }
+
+    /**
+     * Returns the running task of the given step or {@code null}.
+     */
+    public StepTask<?> getStepTask(WizardStep step) {
+        if (stepTasks == null || step == null) {
+            return null;
+        }
+        StepTask<?> task = stepTasks.get(step);
+        if (task != null && task.isFinished()) {
+            // finished while the UI was detached
+            stepTasks.remove(step);
+            return null;
+        }
+        return task;
+    }
+
+    void stepTaskFinished(StepTask<?> task) {
+        if (stepTasks != null && stepTasks.get(task.getStep()) == task) {
+            stepTasks.remove(task.getStep());
+            updateButtons();
+        }
+    }
+
+    private void cancelStepTask(WizardStep step) {
+        StepTask<?> task = getStepTask(step);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    private boolean isBlockedByTask(WizardStep step, boolean advancing) {
+        StepTask<?> task = getStepTask(step);
+        return task != null && task.blocksLeaving(advancing);
+    }
+
+    /**
+     * Sets the executor running the step tasks. By default a virtual thread
+     * is used per task when the Java runtime supports them and a shared
+     * thread pool otherwise.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the default.
+     */
+    public void setStepTaskExecutor(Executor executor) {
+        stepTaskExecutor = executor;
+    }
+
+    public Executor getStepTaskExecutor() {
+        return stepTaskExecutor != null ? stepTaskExecutor
+                : StepTaskExecutor.getDefault();
+    }
+
+    /**
+     * Sets the minimum time between two progress updates pushed to the UI by
+     * a step task. The default is 250 milliseconds.
+     * 
+     * @param millis
+     */
+    public void setTaskProgressInterval(long millis) {
+        taskProgressInterval = millis;
+    }
+
+    public long getTaskProgressInterval() {
+        return taskProgressInterval;
+    }
+
+    /**
+     * Returns the data shared by the steps of this Wizard.
+     * 
+     * @return the context of this Wizard.
+     */
+    public WizardContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the snapshot of the context taken when the given step was last
+     * entered moving forward, or {@code null} if it has not been entered.
+     * 
+     * @param step
+     * @return the snapshot or {@code null}.
+     */
+    public WizardContext.Snapshot getContextSnapshot(WizardStep step) {
+        return contextSnapshots.get(step);
+    }
+
+    /**
+     * Sets whether moving back to a step restores the context to the state it
+     * was in when the step was entered, discarding the changes made in the
+     * steps after it. The restore can be undone with
+     * {@link WizardContext#undo()}. Disabled by default.
+     * 
+     * @param restored
+     */
+    public void setContextRestoredOnBack(boolean restored) {
+        contextRestoredOnBack = restored;
+    }
+
+    public boolean isContextRestoredOnBack() {
+        return contextRestoredOnBack;
+    }
+
+    /**
+     * Updates the steps following the newly activated step if a guard input
+     * affecting them changed while the user was further along the path.
+     */
+    private void resolveStepGraph() {
+        if (stepGraph != null
+                && stepGraph.isDirtyAt(registry.indexOf(currentStep))) {
+            applyStepGraph();
+        }
+    }
+
+    /**
+     * Records the time spent on the current step if it was activated while
+     * metrics were enabled.
+     */
+    private void recordDwell() {
+        String id = getId(currentStep);
+        if (id != null && activatedAt != 0) {
+            metrics.recordDwell(id, System.nanoTime() - activatedAt);
+        }
+        activatedAt = 0;
+    }
+
+    /**
+     * Enables collecting timing and transition metrics of this Wizard to the
+     * given metrics, which are typically shared by all instances of the same
+     * wizard. Nothing is measured while no metrics are set.
+     * 
+     * @param metrics
+     *            the metrics to record to or {@code null} to disable.
+     * @see WizardMetrics#forName(String)
+     */
+    public void setMetrics(WizardMetrics metrics) {
+        this.metrics = metrics;
+        activatedAt = 0;
+    }
+
+    public WizardMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the definition this Wizard was created from or {@code null}.
+     * Steps added after creation are not part of the definition.
+     * 
+     * @return the definition or {@code null}.
+     */
+    public WizardDefinition getDefinition() {
+        return definition;
+    }
+
+    private Component getContent(WizardStep step) {
+        if (contentCache != null) {
+            return contentCache.getContent(step);
+        }
+        return step.getContent();
+    }
+
+    /**
+     * Enables caching of the step contents so that at most the given number of
+     * the most recently activated step contents are kept. The content of the
+     * least recently activated step is evicted when the limit is exceeded and
+     * steps implementing {@link ReleasableWizardStep} are notified so that
+     * they can release their content. Set to zero to disable the cache, in
+     * which case {@link WizardStep#getContent()} is called on every
+     * activation. The cache is disabled by default. Resizing or disabling the
+     * cache releases the contents held so far, except the content of the
+     * current step.
+     * 
+     * @param maxCachedContents
+     *            maximum number of cached step contents or zero to disable the
+     *            cache.
+     * @see #getContentCache()
+     */
+    public void setContentCacheSize(int maxCachedContents) {
+        if (contentCache != null) {
+            // the content of the current step is still shown
+            contentCache.clear(currentStep);
+        }
+        if (maxCachedContents > 0) {
+            contentCache = new StepContentCache(maxCachedContents);
+        } else {
+            contentCache = null;
+        }
+    }
+
+    /**
+     * Returns the content cache of this Wizard for inspecting its hit, miss
+     * and eviction counters or {@code null} if the cache is disabled.
+     * 
+     * @return the content cache or {@code null}.
+     * @see #setContentCacheSize(int)
+     */
+    public StepContentCache getContentCache() {
+        return contentCache;
     }
 
     protected void tryToActivateStep(String id) {
-        WizardStep stepToActivate = idMap.get(id);
+        applyAbandonedWork();
+        if (isNavigationLocked()) {
+            return;
+        }
+        WizardStep stepToActivate = registry.get(id);
         if (stepToActivate != null) {
-            // check that we don't go past the lastCompletedStep by using the id
-            int lastCompletedIndex = lastCompletedStep == null ? -1 : steps
-                    .indexOf(lastCompletedStep);
-            int stepToActivateIndex = steps.indexOf(stepToActivate);
-            int currIndex = steps.indexOf(currentStep);
+            int stepToActivateIndex = registry.indexOf(stepToActivate);
+            int currIndex = registry.indexOf(currentStep);
 
             // If clicking same item, do nothing
             if (stepToActivateIndex == currIndex) {
                 return;
             }
-            int inc;
-            boolean movingForward = stepToActivateIndex - currIndex > 0;
-            int stepsToMove = Math.abs(stepToActivateIndex - currIndex);
-
-            if (movingForward) {
-                inc = 1;
-            } else {
-                inc = -1;
-            }
+            moveTowards(currIndex, stepToActivate, null);
+        }
+    }
 
-            WizardStep lastCheckedStep = currentStep;
-            boolean success = true;
-            for (int i = 1, index = currIndex; i <= stepsToMove; i++, index += inc) {
+    /**
+     * Checks one step at a time, starting from the step at the given index,
+     * that the user is allowed to move towards the target step and activates
+     * it. If some step does not allow moving on, the last step that could be
+     * reached is activated instead. Moving on is paused while an asynchronous
+     * step validation is pending.
+     * 
+     * @param index
+     *            index of the first step to leave.
+     * @param target
+     *            the step to activate.
+     * @param onArrival
+     *            run after the target step has been activated or {@code null}.
+     */
+    private void moveTowards(int index, WizardStep target, Runnable onArrival) {
+        int targetIndex = registry.indexOf(target);
+        if (index < 0 || targetIndex < 0) {
+            // steps removed while the validation was pending
+            return;
+        }
 
-                WizardStep stepToCheck = steps.get(index + inc);
+        prefetchValidations(index, targetIndex);
+        try {
+            walkTowards(index, targetIndex, target, onArrival);
+        } finally {
+            discardPrefetchedValidations();
+        }
+    }
 
-                // If we cannot activate next step, lets activate the lastest
-                // known checked step
-                if (!checkCanStepBeActivated(stepToCheck)) {
-                    // Do not activate the current step again if we cannot move
-                    // away from it.
-                    if (currentStep != lastCheckedStep) {
-                        activateStep(lastCheckedStep);
-                    }
-                    success = false;
-                    break;
-                }
-                lastCheckedStep = stepToCheck;
+    private void walkTowards(int index, int targetIndex,
+            final WizardStep target, final Runnable onArrival) {
+        final int inc = targetIndex > index ? 1 : -1;
+
+        for (; index != targetIndex; index += inc) {
+            final WizardStep lastCheckedStep = steps.get(index);
+            WizardStep stepToCheck = steps.get(index + inc);
+
+            if (isValidatedInBackground(lastCheckedStep, inc > 0)) {
+                validateLeaving(lastCheckedStep, inc > 0,
+                        new ValidationCallback() {
+                            public void validated(boolean allowed) {
+                                int checkedIndex = registry
+                                        .indexOf(lastCheckedStep);
+                                if (checkedIndex < 0) {
+                                    // removed while the validation was
+                                    // pending
+                                    return;
+                                }
+                                if (allowed) {
+                                    moveTowards(checkedIndex + inc, target,
+                                            onArrival);
+                                } else if (currentStep != lastCheckedStep) {
+                                    activateStep(lastCheckedStep);
+                                }
+                            }
+                        });
+                return;
             }
 
-            if (success) {
-                activateStep(stepToActivate);
+            // If we cannot activate next step, lets activate the lastest
+            // known checked step
+            if (!checkCanStepBeActivated(stepToCheck)) {
+                // Do not activate the current step again if we cannot move
+                // away from it.
+                if (currentStep != lastCheckedStep) {
+                    activateStep(lastCheckedStep);
+                }
+                return;
             }
+        }
 
-            // We will no longer prevent a user for moving past the last step
-            // using indices
-            // if (lastCompletedIndex < stepIndex) {
-            // activateStep(lastCompletedStep);
-            // } else {
-            // activateStep(stepToActivate);
-            // }
+        activateStep(target);
+        if (onArrival != null) {
+            onArrival.run();
         }
     }
 
     protected String getId(WizardStep step) {
-        for (Map.Entry<String, WizardStep> entry : idMap.entrySet()) {
-            if (entry.getValue().equals(step)) {
-                return entry.getKey();
-            }
-        }
-        return null;
+        return registry.getId(step);
+    }
+
+    /**
+     * Returns the identifier of the step at the given position without
+     * creating the step if it comes from a {@link WizardDefinition}.
+     */
+    String getStepId(int index) {
+        return registry.getId(index);
+    }
+
+    /**
+     * Returns the caption of the step at the given position without creating
+     * the step if it comes from a {@link WizardDefinition}.
+     */
+    String getStepCaption(int index) {
+        return registry.getCaption(index);
+    }
+
+    /**
+     * Returns {@code true} if the steps of this Wizard are the unmodified
+     * steps of its definition, in which case their captions cannot change.
+     */
+    boolean hasDefinitionSteps() {
+        return registry.getDefinition() != null;
+    }
+
+    /**
+     * Returns the position of the given step in this Wizard or {@code -1} if
+     * the step is not part of this Wizard.
+     * 
+     * @param step
+     * @return the index of the given step or {@code -1}.
+     */
+    protected int indexOf(WizardStep step) {
+        return registry.indexOf(step);
     }
 
     private void updateUriFragment() {
-        if (isUriFragmentEnabled()) {
+        Page page = getPage();
+        if (isUriFragmentEnabled() && page != null) {
             String currentStepId = getId(currentStep);
             if (currentStepId != null && currentStepId.length() > 0) {
-                Page.getCurrent().setUriFragment(currentStepId, false);
+                page.setUriFragment(currentStepId, false);
             } else {
-                Page.getCurrent().setUriFragment(null, false);
+                page.setUriFragment(null, false);
             }
         }
     }
 
     protected boolean isFirstStep(WizardStep step) {
         if (step != null) {
-            return steps.indexOf(step) == 0;
+            return registry.indexOf(step) == 0;
         }
         return false;
     }
 
     protected boolean isLastStep(WizardStep step) {
         if (step != null && !steps.isEmpty()) {
-            return steps.indexOf(step) == (steps.size() - 1);
+            return registry.indexOf(step) == (steps.size() - 1);
         }
         return false;
     }
@@ -655,35 +1958,207 @@ public class Wizard extends CustomComponent implements
      * method is called when user clicks the cancel button.
      */
     public void cancel() {
-        fireEvent(new WizardCancelledEvent(this));
+        if (stepTasks != null) {
+            for (StepTask<?> task : new ArrayList<StepTask<?>>(
+                    stepTasks.values())) {
+                task.cancel();
+            }
+        }
+        if (metrics != null) {
+            recordDwell();
+            metrics.recordCancelled();
+        }
+        fireWizardCancelled();
     }
 
     /**
      * Triggers a {@link WizardCompletedEvent} if the current step is the last
      * step and it allows advancing (see {@link WizardStep#onAdvance()}). This
-     * method is called when user clicks the finish button.
+     * method is called when user clicks the finish button. If the Wizard has
+     * completion stages, they are run in the background first, see
+     * {@link #addCompletionStage(WizardCompletionStage)}. Once the Wizard has
+     * been completed, further calls are ignored.
      */
     public void finish() {
+        applyAbandonedWork();
+        if (isNavigationLocked() || hasCompleted) {
+            return;
+        }
         if (isLastStep(currentStep)) {
-            if (currentStep.onAdvance()) {
-                // next (finish) allowed -> fire complete event
-                fireEvent(new WizardCompletedEvent(this));
-            }
+            completeIfAllowed();
         } else if (currentLinkmode == LinkMode.ALL) {
             // having LinkMode.ALL enabled, one can press finish button
             // right from start
             WizardStep lastStep = steps.get(steps.size() - 1);
 
-            // Do not activate the last step if it is the current one
-            if (currentStep != lastStep) {
-                // If all goes well, after this, currentStep should match
-                // lastStep
-                tryToActivateStep(getId(lastStep));
-            }
+            // If all goes well, after this, currentStep should match lastStep
+            moveTowards(registry.indexOf(currentStep), lastStep,
+                    new Runnable() {
+                        public void run() {
+                            completeIfAllowed();
+                        }
+                    });
+        }
+    }
 
-            if (currentStep == lastStep && currentStep.onAdvance()) {
-                fireEvent(new WizardCompletedEvent(this));
+    private void completeIfAllowed() {
+        validateLeaving(currentStep, true, new ValidationCallback() {
+            public void validated(boolean allowed) {
+                if (allowed) {
+                    if (completionStages.isEmpty()) {
+                        completed();
+                    } else {
+                        runCompletionStages();
+                    }
+                }
             }
+        });
+    }
+
+    private void completed() {
+        hasCompleted = true;
+        updateButtons();
+        if (stateWriter != null) {
+            // nothing left to resume
+            stateWriter.remove(getStateStoreExecutor());
+        }
+        if (metrics != null) {
+            recordDwell();
+            metrics.recordCompleted();
+        }
+        // next (finish) allowed -> fire complete event
+        fireWizardCompleted();
+    }
+
+    /**
+     * Runs the completion stages in order on the completion executor and
+     * reports the outcome while holding the session lock.
+     */
+    private void runCompletionStages() {
+        final List<WizardCompletionStage> stages = new ArrayList<WizardCompletionStage>(
+                completionStages);
+        final WizardContext.Snapshot data = context.snapshot();
+        final UI ui = getUI();
+        setCompleting(true);
+        try {
+            getCompletionExecutor().execute(new Runnable() {
+                public void run() {
+                    Throwable failure = null;
+                    try {
+                        for (WizardCompletionStage stage : stages) {
+                            stage.complete(data);
+                        }
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                    final Throwable result = failure;
+                    if (ui != null) {
+                        try {
+                            ui.access(new Runnable() {
+                                public void run() {
+                                    completionFinished(result);
+                                }
+                            });
+                            return;
+                        } catch (UIDetachedException e) {
+                            // reported like without a UI
+                        }
+                    }
+                    // nobody to report to without the session lock, applied
+                    // in resetAbandonedWork() when the Wizard is used next
+                    abandonedCompletionFailure = result;
+                    completionAbandoned = true;
+                }
+            });
+        } catch (RuntimeException e) {
+            // for example rejected by the executor
+            setCompleting(false);
+            throw e;
+        }
+    }
+
+    private void completionFinished(Throwable failure) {
+        setCompleting(false);
+        if (failure == null) {
+            completed();
+        } else {
+            fireWizardCompletionFailed(failure);
+        }
+    }
+
+    private void setCompleting(boolean completing) {
+        this.completing = completing;
+        if (progressBar != null) {
+            progressBar.markAsDirty();
+        }
+        updateButtons();
+    }
+
+    /**
+     * Returns {@code true} while the completion stages of this Wizard are
+     * running.
+     */
+    public boolean isCompleting() {
+        return completing && !completionAbandoned;
+    }
+
+    /**
+     * Adds a stage to the work done when this Wizard is finished. When there
+     * are completion stages, finishing runs them in the order they were added
+     * on the completion executor. Meanwhile the Wizard is in completing state,
+     * which disables navigation and ignores further finish requests. When all
+     * the stages have completed, the {@link WizardCompletedEvent} is fired and
+     * the Wizard cannot be finished again. If a stage fails, a
+     * {@link WizardCompletionFailedEvent} is fired instead. Both events are
+     * delivered while holding the session lock.
+     * 
+     * @param stage
+     */
+    public void addCompletionStage(WizardCompletionStage stage) {
+        completionStages.add(stage);
+    }
+
+    public void removeCompletionStage(WizardCompletionStage stage) {
+        completionStages.remove(stage);
+    }
+
+    /**
+     * Sets the executor running the completion stages. By default a virtual
+     * thread is used per completion when the Java runtime supports them and
+     * otherwise a thread pool of its own, separate from the one running step
+     * tasks, so that long running step tasks cannot delay completions.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the default.
+     */
+    public void setCompletionExecutor(Executor executor) {
+        completionExecutor = executor;
+    }
+
+    public Executor getCompletionExecutor() {
+        return completionExecutor != null ? completionExecutor
+                : StepTaskExecutor.getCompletionDefault();
+    }
+
+    public void addCompletionFailedListener(
+            WizardCompletionFailedListener listener) {
+        completionFailedListeners.add(listener);
+    }
+
+    public void removeCompletionFailedListener(
+            WizardCompletionFailedListener listener) {
+        completionFailedListeners.remove(listener);
+    }
+
+    private void fireWizardCompletionFailed(Throwable failure) {
+        WizardCompletionFailedEvent event = new WizardCompletionFailedEvent(
+                this, failure);
+        for (WizardCompletionFailedListener listener : new ArrayList<WizardCompletionFailedListener>(
+                completionFailedListeners)) {
+            listener.wizardCompletionFailed(event);
+        }
+        if (hasRouterListeners(WizardCompletionFailedEvent.class)) {
+            fireEvent(event);
         }
     }
 
@@ -694,14 +2169,15 @@ public class Wizard extends CustomComponent implements
      * is called when user clicks the next button.
      */
     public void next() {
+        applyAbandonedWork();
+        if (isNavigationLocked()) {
+            return;
+        }
         if (isLastStep(currentStep)) {
             finish();
         } else {
-            int currentIndex = steps.indexOf(currentStep);
-            WizardStep step = steps.get(currentIndex + 1);
-            if (checkCanStepBeActivated(step)) {
-                activateStep(step);
-            }
+            int currentIndex = registry.indexOf(currentStep);
+            moveTowards(currentIndex, steps.get(currentIndex + 1), null);
         }
     }
 
@@ -711,12 +2187,13 @@ public class Wizard extends CustomComponent implements
      * the first step. This method is called when user clicks the back button.
      */
     public void back() {
-        int currentIndex = steps.indexOf(currentStep);
+        applyAbandonedWork();
+        if (isNavigationLocked()) {
+            return;
+        }
+        int currentIndex = registry.indexOf(currentStep);
         if (currentIndex > 0) {
-            WizardStep step = steps.get(currentIndex - 1);
-            if (checkCanStepBeActivated(step)) {
-                activateStep(step);
-            }
+            moveTowards(currentIndex, steps.get(currentIndex - 1), null);
         }
     }
 
@@ -725,7 +2202,7 @@ public class Wizard extends CustomComponent implements
             String fragment = event.getUriFragment();
             if (fragment == null || fragment.equals("") && !steps.isEmpty()) {
                 // empty fragment -> set the fragment of first step
-                Page.getCurrent().setUriFragment(getId(steps.get(0)));
+                event.getPage().setUriFragment(getId(steps.get(0)));
             } else {
                 tryToActivateStep(fragment);
             }
@@ -743,14 +2220,10 @@ public class Wizard extends CustomComponent implements
      * @see #isActive(WizardStep)
      */
     public void removeStep(WizardStep stepToRemove) {
-        if (idMap.containsValue(stepToRemove)) {
-            for (Map.Entry<String, WizardStep> entry : idMap.entrySet()) {
-                if (entry.getValue().equals(stepToRemove)) {
-                    // delegate the actual removal to the overloaded method
-                    removeStep(entry.getKey());
-                    return;
-                }
-            }
+        String id = registry.getId(stepToRemove);
+        if (id != null) {
+            // delegate the actual removal to the overloaded method
+            removeStep(id);
         }
     }
 
@@ -765,23 +2238,55 @@ public class Wizard extends CustomComponent implements
      * @see #isActive(WizardStep)
      */
     public void removeStep(String id) {
-        if (idMap.containsKey(id)) {
-            WizardStep stepToRemove = idMap.get(id);
-            if (isCompleted(stepToRemove)) {
-                throw new IllegalStateException(
-                        "Already completed step cannot be removed.");
-            }
-            if (isActive(stepToRemove)) {
-                throw new IllegalStateException(
-                        "Currently active step cannot be removed.");
+        checkNoStepGraph();
+        if (registry.containsId(id)) {
+            checkCanBeRemoved(registry.get(id));
+
+            unregister(id, true);
+            stepSetChanged();
+        }
+    }
+
+    /**
+     * Removes all the given steps from this Wizard. Steps that are not part of
+     * this Wizard are ignored. Either all of the steps are removed or, if any
+     * of them is already completed or is the currently active step, none of
+     * them and an {@link IllegalStateException} is thrown. Listeners are
+     * notified only once after all the steps have been removed.
+     * 
+     * @param stepsToRemove
+     *            the steps to remove.
+     * @see #removeStep(WizardStep)
+     */
+    public void removeSteps(WizardStep... stepsToRemove) {
+        checkNoStepGraph();
+        List<String> ids = new ArrayList<String>(stepsToRemove.length);
+        for (WizardStep step : stepsToRemove) {
+            String id = registry.getId(step);
+            if (id != null) {
+                checkCanBeRemoved(step);
+                ids.add(id);
             }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
 
-            idMap.remove(id);
-            steps.remove(stepToRemove);
+        for (String id : ids) {
+            unregister(id, true);
+        }
+        stepSetChanged();
+    }
 
-            // notify listeners
-            fireEvent(new WizardStepSetChangedEvent(this));
-            progressBar.markAsDirty();
+    private void checkCanBeRemoved(WizardStep stepToRemove) {
+        // a stale step is not completed but is still before the active step
+        if (registry.indexOf(stepToRemove) < registry.indexOf(currentStep)) {
+            throw new IllegalStateException(
+                    "Already completed step cannot be removed.");
+        }
+        if (isActive(stepToRemove)) {
+            throw new IllegalStateException(
+                    "Currently active step cannot be removed.");
         }
     }
 
@@ -805,6 +2310,153 @@ public class Wizard extends CustomComponent implements
         progressBar.markAsDirty();
     }
 
+    /**
+     * Returns a compact snapshot of the navigation state of this Wizard that
+     * can later be restored with {@link #restoreState(WizardState)}, possibly
+     * on another Wizard instance built with the same steps.
+     * 
+     * @return the current navigation state.
+     */
+    public WizardState getWizardState() {
+        String[] stepIds = stateStepIds;
+        if (registry.getDefinition() != null) {
+            stepIds = registry.getDefinition().getStepIds();
+        } else if (stepIds == null) {
+            stepIds = new String[steps.size()];
+            for (int i = 0; i < stepIds.length; i++) {
+                stepIds[i] = registry.getId(i);
+            }
+            stateStepIds = stepIds;
+        }
+        return WizardState.sharing(stepIds, registry.indexOf(currentStep),
+                registry.indexOf(lastCompletedStep), currentLinkmode,
+                uriFragmentEnabled);
+    }
+
+    /**
+     * Restores the navigation state of this Wizard from the given snapshot.
+     * This Wizard must contain steps with the same identifiers in the same
+     * order as the Wizard the snapshot was taken from. The step that was
+     * active is activated without asking the steps in between.
+     * 
+     * @param state
+     *            the state to restore.
+     * @throws IllegalArgumentException
+     *             if the steps of this Wizard don't match the snapshot.
+     */
+    public void restoreState(WizardState state) {
+        if (state.getStepCount() != steps.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Wizard state has %d steps but the wizard has %d.",
+                    state.getStepCount(), steps.size()));
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            if (!state.getStepId(i).equals(registry.getId(i))) {
+                throw new IllegalArgumentException(String.format(
+                        "Wizard state has step %s at index %d but the wizard has %s.",
+                        state.getStepId(i), i, registry.getId(i)));
+            }
+        }
+
+        setLinkMode(state.getLinkMode());
+        setUriFragmentEnabled(state.isUriFragmentEnabled());
+        int currentIndex = state.getCurrentIndex();
+        restoringState = true;
+        try {
+            if (currentIndex >= 0 && steps.get(currentIndex) != currentStep) {
+                activateStep(steps.get(currentIndex));
+            }
+        } finally {
+            restoringState = false;
+        }
+        int lastCompletedIndex = state.getLastCompletedIndex();
+        lastCompletedStep = lastCompletedIndex >= 0 ? steps
+                .get(lastCompletedIndex) : null;
+        saveState();
+    }
+
+    /**
+     * Sets the store where the state of this Wizard is saved with the given
+     * key whenever a step is activated. The saved state is removed when the
+     * wizard is completed. The state is written outside of the request with
+     * the state store executor and failures to write it are logged. Use
+     * {@link #resume()} to continue from the saved state in a later session.
+     * The store is not serialized with this Wizard and must be set again
+     * after deserialization.
+     * 
+     * @param store
+     *            the store for the wizard state or {@code null} to stop
+     *            saving the state.
+     * @param key
+     *            key identifying this wizard in the store, for example the
+     *            name of the wizard combined with a user identifier.
+     */
+    public void setStateStore(WizardStateStore store, String key) {
+        if (store != null && key == null) {
+            throw new IllegalArgumentException(
+                    "Key is required for storing the wizard state.");
+        }
+        stateStore = store;
+        stateKey = key;
+        stateWriter = store != null ? new StateStoreWriter(store, key) : null;
+    }
+
+    public WizardStateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Sets the executor writing the state of this Wizard to the state store.
+     * By default a virtual thread is used per write when the Java runtime
+     * supports them and otherwise a thread pool of its own, separate from the
+     * one running step tasks, so that long running step tasks cannot delay
+     * saving the state.
+     * 
+     * @param executor
+     *            the executor or {@code null} to use the default.
+     */
+    public void setStateStoreExecutor(Executor executor) {
+        stateStoreExecutor = executor;
+    }
+
+    public Executor getStateStoreExecutor() {
+        return stateStoreExecutor != null ? stateStoreExecutor
+                : StepTaskExecutor.getStateStoreDefault();
+    }
+
+    /**
+     * Restores the state saved to the state store of this Wizard, if any. A
+     * saved state that no longer matches the steps of this Wizard is
+     * discarded.
+     * 
+     * @return {@code true} if a saved state was restored.
+     * @see #setStateStore(WizardStateStore, String)
+     */
+    public boolean resume() {
+        if (stateStore == null) {
+            return false;
+        }
+        WizardState state = stateStore.load(stateKey);
+        if (state == null) {
+            return false;
+        }
+        try {
+            restoreState(state);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // the steps have changed since the state was saved
+            stateWriter.remove(getStateStoreExecutor());
+            return false;
+        }
+    }
+
+    private void saveState() {
+        // a restored state is saved once it has been fully applied
+        if (stateWriter != null && !restoringState) {
+            stateWriter.save(getWizardState(), getStateStoreExecutor());
+        }
+    }
+
     /**
      * Sets the width (in pixels) of the progress bar if it is vertically laid
      * out. Needs the steps to be vertically laid out, otherwise this will have
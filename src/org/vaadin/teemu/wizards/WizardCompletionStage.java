@@ -0,0 +1,25 @@
+package org.vaadin.teemu.wizards;
+
+/**
+ * Step of the work done when a {@link Wizard} is finished, such as
+ * persisting the collected data. The stages of a Wizard are run in order on
+ * the completion executor without holding the session lock, so they must not
+ * access any components. They get an immutable snapshot of the
+ * {@link WizardContext} instead.
+ * 
+ * @see Wizard#addCompletionStage(WizardCompletionStage)
+ */
+public interface WizardCompletionStage {
+
+    /**
+     * Runs this stage. Throwing an exception stops the completion and the
+     * following stages are not run.
+     * 
+     * @param data
+     *            snapshot of the context of the Wizard when it was finished.
+     * @throws Exception
+     *             if the stage fails.
+     */
+    public void complete(WizardContext.Snapshot data) throws Exception;
+
+}
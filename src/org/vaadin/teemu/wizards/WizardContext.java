@@ -0,0 +1,201 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Typed data shared by the steps of a {@link Wizard}. The values are kept in
+ * a persistent map, so taking a {@link Snapshot} is free and every change
+ * only copies the small part of the map that changed. The Wizard takes a
+ * snapshot whenever a step is activated and can restore it when the user
+ * moves back to the step, see {@link Wizard#setContextRestoredOnBack(boolean)}.
+ * 
+ * <p>
+ * Changes can be undone and redone. The undo history keeps the previous
+ * versions of the map, which share everything but the changed keys.
+ * </p>
+ * 
+ * @see Wizard#getContext()
+ */
+@SuppressWarnings("serial")
+public class WizardContext implements Serializable {
+
+    /**
+     * Immutable view of the values of a {@link WizardContext} at the time it
+     * was taken.
+     */
+    public static final class Snapshot implements Serializable {
+
+        private final PersistentMap<ContextKey<?>, Object> values;
+
+        private Snapshot(PersistentMap<ContextKey<?>, Object> values) {
+            this.values = values;
+        }
+
+        public <T> T get(ContextKey<T> key) {
+            return key.getType().cast(values.get(key));
+        }
+
+        public boolean containsKey(ContextKey<?> key) {
+            return values.containsKey(key);
+        }
+
+        public int size() {
+            return values.size();
+        }
+    }
+
+    private PersistentMap<ContextKey<?>, Object> values = PersistentMap
+            .empty();
+
+    private final Deque<PersistentMap<ContextKey<?>, Object>> undoHistory = new ArrayDeque<PersistentMap<ContextKey<?>, Object>>();
+    private final Deque<PersistentMap<ContextKey<?>, Object>> redoHistory = new ArrayDeque<PersistentMap<ContextKey<?>, Object>>();
+    private int undoLimit = 100;
+
+    /**
+     * Returns the value of the given key or {@code null} if there is none.
+     */
+    public <T> T get(ContextKey<T> key) {
+        return key.getType().cast(values.get(key));
+    }
+
+    /**
+     * Returns the value of the given key or the given default value if there
+     * is none.
+     */
+    public <T> T get(ContextKey<T> key, T defaultValue) {
+        T value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Sets the value of the given key.
+     * 
+     * @param key
+     * @param value
+     *            the new value or {@code null} to remove the value.
+     */
+    public <T> void put(ContextKey<T> key, T value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            change(values.put(key, key.getType().cast(value)));
+        }
+    }
+
+    public void remove(ContextKey<?> key) {
+        change(values.remove(key));
+    }
+
+    public boolean containsKey(ContextKey<?> key) {
+        return values.containsKey(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the keys that currently have a value.
+     * 
+     * @return unmodifiable set of keys.
+     */
+    public Set<ContextKey<?>> getKeys() {
+        List<ContextKey<?>> keys = new ArrayList<ContextKey<?>>(values.size());
+        values.collectKeys(keys);
+        return Collections.unmodifiableSet(new LinkedHashSet<ContextKey<?>>(
+                keys));
+    }
+
+    /**
+     * Returns a snapshot of the current values. Taking a snapshot does not
+     * copy anything.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(values);
+    }
+
+    /**
+     * Replaces the current values with the values of the given snapshot. The
+     * restore can be undone like any other change.
+     * 
+     * @param snapshot
+     */
+    public void restore(Snapshot snapshot) {
+        change(snapshot.values);
+    }
+
+    private void change(PersistentMap<ContextKey<?>, Object> newValues) {
+        if (newValues == values) {
+            return;
+        }
+        if (undoLimit > 0) {
+            undoHistory.push(values);
+            if (undoHistory.size() > undoLimit) {
+                undoHistory.removeLast();
+            }
+        }
+        redoHistory.clear();
+        values = newValues;
+    }
+
+    /**
+     * Reverts the latest change.
+     * 
+     * @return {@code false} if there was nothing to undo.
+     */
+    public boolean undo() {
+        if (undoHistory.isEmpty()) {
+            return false;
+        }
+        redoHistory.push(values);
+        values = undoHistory.pop();
+        return true;
+    }
+
+    /**
+     * Applies again the latest undone change.
+     * 
+     * @return {@code false} if there was nothing to redo.
+     */
+    public boolean redo() {
+        if (redoHistory.isEmpty()) {
+            return false;
+        }
+        undoHistory.push(values);
+        values = redoHistory.pop();
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !undoHistory.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoHistory.isEmpty();
+    }
+
+    /**
+     * Sets the maximum number of changes that can be undone. Zero disables
+     * the undo history. The default is 100.
+     * 
+     * @param undoLimit
+     */
+    public void setUndoLimit(int undoLimit) {
+        this.undoLimit = Math.max(0, undoLimit);
+        while (undoHistory.size() > this.undoLimit) {
+            undoHistory.removeLast();
+        }
+    }
+
+    public int getUndoLimit() {
+        return undoLimit;
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+
+/**
+ * Immutable description of the steps of a wizard: their identifiers,
+ * captions, order and the factories creating them, together with the link
+ * mode. A definition is built once, typically per application, and shared by
+ * all the {@link Wizard}s following the same flow, so that each Wizard only
+ * keeps its navigation state and the steps the user has actually reached.
+ * 
+ * <p>
+ * Definitions are identified by name. A serialized reference, for example in
+ * a replicated session, only holds the name and resolves to the definition
+ * built with the same name, which must therefore be built before sessions
+ * are deserialized. Names must be unique, so that a session cannot be
+ * restored against a different step table.
+ * </p>
+ * 
+ * <p>
+ * Definitions are safe to share between threads. The
+ * {@link WizardStepFactory}s are shared as well and must therefore create a
+ * new step on each call without keeping any session specific state.
+ * </p>
+ * 
+ * <pre>
+ * static final WizardDefinition DEFINITION = new WizardDefinition.Builder(&quot;signup&quot;)
+ *         .addStep(&quot;intro&quot;, &quot;Intro&quot;, introFactory)
+ *         .addStep(&quot;details&quot;, &quot;Details&quot;, detailsFactory)
+ *         .setLinkMode(LinkMode.PREVIOUS).build();
+ * 
+ * Wizard wizard = new Wizard(DEFINITION);
+ * </pre>
+ * 
+ * @see Wizard#Wizard(WizardDefinition)
+ */
+@SuppressWarnings("serial")
+public final class WizardDefinition implements Serializable {
+
+    private static final ConcurrentMap<String, WizardDefinition> definitions = new ConcurrentHashMap<String, WizardDefinition>();
+
+    private final String name;
+    private final String[] stepIds;
+    private final String[] captions;
+    private final WizardStepFactory[] factories;
+    private final Map<String, Integer> indexById;
+    private final LinkMode linkMode;
+
+    /**
+     * Builder for a {@link WizardDefinition}. Builders are not thread-safe.
+     */
+    public static class Builder {
+
+        private final String name;
+        private final List<String> stepIds = new ArrayList<String>();
+        private final List<String> captions = new ArrayList<String>();
+        private final List<WizardStepFactory> factories = new ArrayList<WizardStepFactory>();
+        private final Map<String, Integer> indexById = new HashMap<String, Integer>();
+        private LinkMode linkMode = LinkMode.NONE;
+
+        /**
+         * @param name
+         *            name identifying the definition, unique within the
+         *            application.
+         */
+        public Builder(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Name must not be null.");
+            }
+            this.name = name;
+        }
+
+        /**
+         * Adds a step after the previously added steps.
+         * 
+         * @param id
+         *            identifier of the step, also used as its URI fragment.
+         * @param caption
+         *            caption of the step shown in the progress bar.
+         * @param factory
+         *            factory creating the step when it is first needed.
+         * @return this builder.
+         * @throws IllegalArgumentException
+         *             if the id is already used or the factory is
+         *             {@code null}.
+         */
+        public Builder addStep(String id, String caption,
+                WizardStepFactory factory) {
+            if (id == null || factory == null) {
+                throw new IllegalArgumentException(
+                        "Step id and factory cannot be null.");
+            }
+            if (indexById.containsKey(id)) {
+                throw new IllegalArgumentException(String.format(
+                        "A step with given id %s already exists. You must use unique identifiers for the steps.",
+                        id));
+            }
+            indexById.put(id, stepIds.size());
+            stepIds.add(id);
+            captions.add(caption);
+            factories.add(factory);
+            return this;
+        }
+
+        public Builder setLinkMode(LinkMode linkMode) {
+            if (linkMode == null) {
+                throw new IllegalArgumentException(
+                        "Link mode cannot be null.");
+            }
+            this.linkMode = linkMode;
+            return this;
+        }
+
+        /**
+         * Builds the definition and registers it by its name.
+         * 
+         * @return the definition.
+         * @throws IllegalStateException
+         *             if a definition with the same name has already been
+         *             built.
+         */
+        public WizardDefinition build() {
+            WizardDefinition definition = new WizardDefinition(this);
+            if (definitions.putIfAbsent(name, definition) != null) {
+                throw new IllegalStateException(String.format(
+                        "A wizard definition named %s already exists. Definitions must have unique names.",
+                        name));
+            }
+            return definition;
+        }
+    }
+
+    private WizardDefinition(Builder builder) {
+        name = builder.name;
+        indexById = new HashMap<String, Integer>(builder.indexById);
+        stepIds = builder.stepIds.toArray(new String[builder.stepIds.size()]);
+        captions = builder.captions
+                .toArray(new String[builder.captions.size()]);
+        factories = builder.factories
+                .toArray(new WizardStepFactory[builder.factories.size()]);
+        linkMode = builder.linkMode;
+    }
+
+    /**
+     * Returns the definition built with the given name or {@code null}.
+     * 
+     * @param name
+     * @return the definition or {@code null}.
+     */
+    public static WizardDefinition forName(String name) {
+        return definitions.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStepCount() {
+        return stepIds.length;
+    }
+
+    public String getStepId(int index) {
+        return stepIds[index];
+    }
+
+    /**
+     * Returns the position of the step with the given identifier or
+     * {@code -1} if there is no such step.
+     * 
+     * @param id
+     * @return the index of the step or {@code -1}.
+     */
+    public int indexOf(String id) {
+        Integer index = indexById.get(id);
+        return index == null ? -1 : index.intValue();
+    }
+
+    /**
+     * Returns the identifiers of the steps, shared and not to be modified.
+     */
+    String[] getStepIds() {
+        return stepIds;
+    }
+
+    public String getCaption(int index) {
+        return captions[index];
+    }
+
+    public WizardStepFactory getFactory(int index) {
+        return factories[index];
+    }
+
+    public LinkMode getLinkMode() {
+        return linkMode;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new Reference(name);
+    }
+
+    /**
+     * Serialized form of a definition, resolving to the definition of the
+     * same name.
+     */
+    private static class Reference implements Serializable {
+
+        private final String name;
+
+        Reference(String name) {
+            this.name = name;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            WizardDefinition definition = forName(name);
+            if (definition == null) {
+                throw new InvalidObjectException(
+                        "No wizard definition named " + name);
+            }
+            return definition;
+        }
+    }
+
+}
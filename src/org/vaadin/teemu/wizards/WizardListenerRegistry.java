@@ -0,0 +1,160 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+
+/**
+ * Ordered registry of the {@link WizardProgressListener}s of a {@link Wizard}
+ * calling the listener methods directly instead of through reflection.
+ * 
+ * <p>
+ * Listeners with a higher priority are notified first and listeners with the
+ * same priority in the order they were added. The listeners are kept in an
+ * array that is replaced on every change, so listeners may add or remove
+ * listeners while being notified without affecting the ongoing notification.
+ * </p>
+ * 
+ * <p>
+ * Asynchronous listeners are notified through the {@link AsyncListenerDelivery}
+ * of the registry, or directly if it has none, for example after
+ * deserialization.
+ * </p>
+ */
+@SuppressWarnings("serial")
+class WizardListenerRegistry implements Serializable {
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private static class Entry implements Serializable {
+        final WizardProgressListener listener;
+        final int priority;
+        final boolean async;
+
+        Entry(WizardProgressListener listener, int priority, boolean async) {
+            this.listener = listener;
+            this.priority = priority;
+            this.async = async;
+        }
+    }
+
+    private Entry[] entries = NO_ENTRIES;
+
+    private transient AsyncListenerDelivery asyncDelivery;
+
+    void setAsyncDelivery(AsyncListenerDelivery asyncDelivery) {
+        this.asyncDelivery = asyncDelivery;
+    }
+
+    AsyncListenerDelivery getAsyncDelivery() {
+        return asyncDelivery;
+    }
+
+    boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    /**
+     * Adds the given listener unless it is already registered, in which case
+     * its original priority and delivery are kept.
+     */
+    void add(WizardProgressListener listener, int priority, boolean async) {
+        for (Entry entry : entries) {
+            if (entry.listener == listener) {
+                return;
+            }
+        }
+        Entry[] newEntries = new Entry[entries.length + 1];
+        // insert after all entries with the same or higher priority
+        int index = 0;
+        while (index < entries.length && entries[index].priority >= priority) {
+            index++;
+        }
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        newEntries[index] = new Entry(listener, priority, async);
+        System.arraycopy(entries, index, newEntries, index + 1, entries.length
+                - index);
+        entries = newEntries;
+    }
+
+    /**
+     * Removes the registration of the given listener.
+     */
+    void remove(WizardProgressListener listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener == listener) {
+                Entry[] newEntries = new Entry[entries.length - 1];
+                System.arraycopy(entries, 0, newEntries, 0, i);
+                System.arraycopy(entries, i + 1, newEntries, i,
+                        entries.length - i - 1);
+                entries = newEntries;
+                return;
+            }
+        }
+    }
+
+    private boolean isDeliveredAsync(Entry entry) {
+        return entry.async && asyncDelivery != null;
+    }
+
+    void activeStepChanged(final WizardStepActivationEvent event) {
+        for (final Entry entry : entries) {
+            if (isDeliveredAsync(entry)) {
+                asyncDelivery.enqueue(new Runnable() {
+                    public void run() {
+                        entry.listener.activeStepChanged(event);
+                    }
+                });
+            } else {
+                entry.listener.activeStepChanged(event);
+            }
+        }
+    }
+
+    void stepSetChanged(final WizardStepSetChangedEvent event) {
+        for (final Entry entry : entries) {
+            if (isDeliveredAsync(entry)) {
+                asyncDelivery.enqueue(new Runnable() {
+                    public void run() {
+                        entry.listener.stepSetChanged(event);
+                    }
+                });
+            } else {
+                entry.listener.stepSetChanged(event);
+            }
+        }
+    }
+
+    void wizardCompleted(final WizardCompletedEvent event) {
+        for (final Entry entry : entries) {
+            if (isDeliveredAsync(entry)) {
+                asyncDelivery.enqueue(new Runnable() {
+                    public void run() {
+                        entry.listener.wizardCompleted(event);
+                    }
+                });
+            } else {
+                entry.listener.wizardCompleted(event);
+            }
+        }
+    }
+
+    void wizardCancelled(final WizardCancelledEvent event) {
+        for (final Entry entry : entries) {
+            if (isDeliveredAsync(entry)) {
+                asyncDelivery.enqueue(new Runnable() {
+                    public void run() {
+                        entry.listener.wizardCancelled(event);
+                    }
+                });
+            } else {
+                entry.listener.wizardCancelled(event);
+            }
+        }
+    }
+
+}
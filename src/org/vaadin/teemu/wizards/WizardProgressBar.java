@@ -1,7 +1,16 @@
 package org.vaadin.teemu.wizards;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import org.vaadin.teemu.wizards.Wizard.LinkMode;
-import org.vaadin.teemu.wizards.client.ui.SerializableStep;
+import org.vaadin.teemu.wizards.client.ui.ProgressBarLinkMode;
+import org.vaadin.teemu.wizards.client.ui.StepDelta;
+import org.vaadin.teemu.wizards.client.ui.StepFlags;
+import org.vaadin.teemu.wizards.client.ui.WizardProgressBarClientRpc;
 import org.vaadin.teemu.wizards.client.ui.WizardProgressBarServerRpc;
 import org.vaadin.teemu.wizards.client.ui.WizardProgressBarState;
 import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
@@ -14,6 +23,16 @@ import com.vaadin.ui.AbstractComponent;
 
 /**
  * WizardProgressBar displays the progress bar for a {@link Wizard}.
+ * 
+ * <p>
+ * The current and completed steps are sent as indices in the shared state.
+ * The captions are sent to the client only when the progress bar is attached
+ * and when the set of steps changes. On other responses only the captions of
+ * the previous and the new current step and the steps passed to
+ * {@link #refreshSteps(WizardStep...)} are compared to what the client shows,
+ * and only the changed ones are sent, so the work and the size of a response
+ * to a navigation do not depend on the number of steps.
+ * </p>
  */
 public class WizardProgressBar extends AbstractComponent implements
         WizardProgressListener {
@@ -23,11 +42,40 @@ public class WizardProgressBar extends AbstractComponent implements
     private WizardProgressBarServerRpc rpc = new WizardProgressBarServerRpc() {
 
         @Override
-        public void progressBarItemClicked(String progressBarItemId) {
-            wizard.tryToActivateStep(progressBarItemId);
+        public void progressBarItemClicked(int revision, int index) {
+            // the client may not yet know that the steps have changed
+            if (fullSyncNeeded || revision != stepsRevision) {
+                return;
+            }
+            if (index >= 0 && index < wizard.getSteps().size()) {
+                wizard.tryToActivateStep(wizard.getStepId(index));
+            }
         }
     };
 
+    /**
+     * Set when the whole list of steps has to be sent on the next response.
+     */
+    private boolean fullSyncNeeded = true;
+
+    /**
+     * Set when every caption has to be compared to what the client has.
+     */
+    private boolean refreshNeeded;
+
+    // steps whose captions are compared on the next response
+    private Set<WizardStep> refreshedSteps;
+
+    // the captions the client currently shows, by step index, or null if
+    // they are the captions of the definition of the wizard
+    private String[] sentCaptions = new String[0];
+
+    // the current step of the previous response
+    private WizardStep sentCurrentStep;
+
+    // identifies the set of steps the client currently shows
+    private int stepsRevision;
+
     public WizardProgressBar(Wizard wizard,
             boolean horizontalWizardProgressBar, boolean showProgressIndicator) {
         this.wizard = wizard;
@@ -60,26 +108,136 @@ public class WizardProgressBar extends AbstractComponent implements
         super.beforeClientResponse(initial);
 
         if (wizard.currentLinkmode == LinkMode.NONE) {
-            getState().linkMode = "none";
+            getState().linkMode = ProgressBarLinkMode.NONE;
         } else if (wizard.currentLinkmode == LinkMode.PREVIOUS) {
-            getState().linkMode = "previous";
+            getState().linkMode = ProgressBarLinkMode.PREVIOUS;
         } else if (wizard.currentLinkmode == LinkMode.ALL) {
-            getState().linkMode = "all";
+            getState().linkMode = ProgressBarLinkMode.ALL;
         }
 
         getState().verticalspacing = wizard.hasVerticalStepSpacing;
-        getState().steps.clear();
-        for (WizardStep step : wizard.getSteps()) {
+        getState().completing = wizard.isCompleting();
+
+        int current = wizard.indexOf(wizard.currentStep);
+        getState().currentIndex = current;
+        getState().completedUpTo = Math.max(current, 0);
+        getState().notCompleted = getNotCompleted(current);
 
-            SerializableStep ss = new SerializableStep();
-            ss.caption = step.getCaption();
-            ss.stepid = wizard.getId(step);
-            ss.completed = wizard.isCompleted(step);
-            ss.current = wizard.isActive(step);
+        if (initial || fullSyncNeeded) {
+            sendAllCaptions();
+        } else {
+            sendChangedCaptions(current);
+        }
+        refreshNeeded = false;
+        refreshedSteps = null;
+        sentCurrentStep = wizard.currentStep;
+    }
 
-            getState().steps.add(ss);
+    /**
+     * Returns the steps before the current one that are not completed because
+     * data they depend on has changed.
+     */
+    private String getNotCompleted(int current) {
+        if (current <= 0 || !wizard.hasStepDependencies()) {
+            return "";
+        }
+        List<Integer> stale = wizard.getStaleStepIndices(current);
+        if (stale.isEmpty()) {
+            return "";
         }
+        boolean[] notCompleted = new boolean[current];
+        for (int index : stale) {
+            notCompleted[index] = true;
+        }
+        return StepFlags.encode(notCompleted);
+    }
 
+    private void sendAllCaptions() {
+        int count = wizard.getSteps().size();
+        ArrayList<String> captions = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            captions.add(wizard.getStepCaption(i));
+        }
+        // the captions of the definition are shared and never change
+        sentCaptions = wizard.hasDefinitionSteps() ? null : captions
+                .toArray(new String[count]);
+        fullSyncNeeded = false;
+        stepsRevision++;
+        getRpcProxy(WizardProgressBarClientRpc.class).setSteps(stepsRevision,
+                captions);
+    }
+
+    /**
+     * Sends the captions that differ from what the client shows, comparing
+     * only the steps that may have changed.
+     */
+    private void sendChangedCaptions(int current) {
+        List<WizardStep> steps = wizard.getSteps();
+        ArrayList<StepDelta> deltas = new ArrayList<StepDelta>(2);
+        if (refreshNeeded) {
+            for (int i = 0; i < steps.size(); i++) {
+                compareCaption(steps, i, deltas);
+            }
+        } else {
+            // steps often change their caption when entered or left
+            compareCaption(steps, wizard.indexOf(sentCurrentStep), deltas);
+            compareCaption(steps, current, deltas);
+            if (refreshedSteps != null) {
+                for (WizardStep step : refreshedSteps) {
+                    compareCaption(steps, wizard.indexOf(step), deltas);
+                }
+            }
+        }
+        if (!deltas.isEmpty()) {
+            getRpcProxy(WizardProgressBarClientRpc.class).updateCaptions(
+                    deltas);
+        }
+    }
+
+    private void compareCaption(List<WizardStep> steps, int index,
+            List<StepDelta> deltas) {
+        if (sentCaptions == null || index < 0
+                || index >= sentCaptions.length) {
+            return;
+        }
+        String caption = steps.get(index).getCaption();
+        if (caption == null ? sentCaptions[index] != null : !caption
+                .equals(sentCaptions[index])) {
+            StepDelta delta = new StepDelta();
+            delta.index = index;
+            delta.caption = caption;
+            deltas.add(delta);
+            sentCaptions[index] = caption;
+        }
+    }
+
+    /**
+     * Compares the caption of every step to what is shown at the client on
+     * the next response. Prefer {@link #refreshSteps(WizardStep...)} when the
+     * changed steps are known, as this takes time linear in the number of
+     * steps.
+     */
+    public void refreshSteps() {
+        refreshNeeded = true;
+        markAsDirty();
+    }
+
+    /**
+     * Sends the captions of the given steps to the client on the next
+     * response if they have changed. Call this after changing the caption of
+     * a step other than the current or the previously current one, as the
+     * other captions are otherwise sent only when the set of steps changes.
+     * 
+     * @param changedSteps
+     *            the steps whose captions may have changed.
+     */
+    public void refreshSteps(WizardStep... changedSteps) {
+        if (refreshedSteps == null) {
+            refreshedSteps = Collections
+                    .newSetFromMap(new IdentityHashMap<WizardStep, Boolean>());
+        }
+        Collections.addAll(refreshedSteps, changedSteps);
+        markAsDirty();
     }
 
     /*
@@ -94,6 +252,7 @@ public class WizardProgressBar extends AbstractComponent implements
     }
 
     public void stepSetChanged(WizardStepSetChangedEvent event) {
+        fullSyncNeeded = true;
         markAsDirty();
     }
 
@@ -106,6 +265,35 @@ public class WizardProgressBar extends AbstractComponent implements
         // NOP, no need to react to cancellation
     }
 
+    /**
+     * Limits the number of steps shown at a time. Only the given number of
+     * steps around the current step are shown, and the steps before and after
+     * them are collapsed into groups that show the next or previous steps when
+     * clicked. Use this for wizards with too many steps to show at once.
+     * 
+     * @param count
+     *            number of steps to show or {@code 0} to show all steps.
+     * @throws IllegalArgumentException
+     *             if the count is negative.
+     */
+    public void setVisibleStepCount(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(
+                    "Visible step count cannot be negative");
+        }
+        getState().visibleStepCount = count;
+    }
+
+    /**
+     * Returns the number of steps shown at a time or {@code 0} if all steps
+     * are shown.
+     * 
+     * @see #setVisibleStepCount(int)
+     */
+    public int getVisibleStepCount() {
+        return getState().visibleStepCount;
+    }
+
     public void setPixelWidth(int pixels) {
         setWidth(pixels + "px");
         markAsDirty();
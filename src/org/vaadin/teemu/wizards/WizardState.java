@@ -0,0 +1,129 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+
+/**
+ * Compact snapshot of the navigation state of a {@link Wizard}: the step
+ * identifiers in order, the current and last completed step and the link
+ * mode. A snapshot does not contain the steps or any components, so it is
+ * cheap to serialize and can be restored to a Wizard built with the same
+ * steps, for example on another cluster node.
+ * 
+ * @see Wizard#getWizardState()
+ * @see Wizard#restoreState(WizardState)
+ * @see WizardStateCodec
+ */
+public final class WizardState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] stepIds;
+    private final int currentIndex;
+    private final int lastCompletedIndex;
+    private final LinkMode linkMode;
+    private final boolean uriFragmentEnabled;
+
+    /**
+     * @param stepIds
+     *            identifiers of the steps in display order.
+     * @param currentIndex
+     *            index of the currently active step or {@code -1}.
+     * @param lastCompletedIndex
+     *            index of the last completed step or {@code -1}.
+     * @param linkMode
+     *            link mode of the wizard.
+     * @param uriFragmentEnabled
+     *            whether URI fragment navigation is enabled.
+     */
+    public WizardState(String[] stepIds, int currentIndex,
+            int lastCompletedIndex, LinkMode linkMode,
+            boolean uriFragmentEnabled) {
+        this(currentIndex, lastCompletedIndex, linkMode, uriFragmentEnabled,
+                stepIds.clone());
+    }
+
+    private WizardState(int currentIndex, int lastCompletedIndex,
+            LinkMode linkMode, boolean uriFragmentEnabled, String[] stepIds) {
+        if (currentIndex < -1 || currentIndex >= stepIds.length) {
+            throw new IllegalArgumentException("Invalid current step index "
+                    + currentIndex);
+        }
+        if (lastCompletedIndex < -1 || lastCompletedIndex >= stepIds.length) {
+            throw new IllegalArgumentException(
+                    "Invalid last completed step index " + lastCompletedIndex);
+        }
+        this.stepIds = stepIds;
+        this.currentIndex = currentIndex;
+        this.lastCompletedIndex = lastCompletedIndex;
+        this.linkMode = linkMode == null ? LinkMode.NONE : linkMode;
+        this.uriFragmentEnabled = uriFragmentEnabled;
+    }
+
+    /**
+     * Creates a state sharing the given identifier array, which must not be
+     * modified afterwards.
+     */
+    static WizardState sharing(String[] stepIds, int currentIndex,
+            int lastCompletedIndex, LinkMode linkMode,
+            boolean uriFragmentEnabled) {
+        return new WizardState(currentIndex, lastCompletedIndex, linkMode,
+                uriFragmentEnabled, stepIds);
+    }
+
+    public String[] getStepIds() {
+        return stepIds.clone();
+    }
+
+    int getStepCount() {
+        return stepIds.length;
+    }
+
+    String getStepId(int index) {
+        return stepIds[index];
+    }
+
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    public int getLastCompletedIndex() {
+        return lastCompletedIndex;
+    }
+
+    public LinkMode getLinkMode() {
+        return linkMode;
+    }
+
+    public boolean isUriFragmentEnabled() {
+        return uriFragmentEnabled;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof WizardState)) {
+            return false;
+        }
+        WizardState other = (WizardState) obj;
+        return currentIndex == other.currentIndex
+                && lastCompletedIndex == other.lastCompletedIndex
+                && linkMode == other.linkMode
+                && uriFragmentEnabled == other.uriFragmentEnabled
+                && Arrays.equals(stepIds, other.stepIds);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(stepIds);
+        hash = 31 * hash + currentIndex;
+        hash = 31 * hash + lastCompletedIndex;
+        hash = 31 * hash + linkMode.hashCode();
+        return 31 * hash + (uriFragmentEnabled ? 1 : 0);
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+
+/**
+ * Binary encoding for {@link WizardState} snapshots. The step identifiers are
+ * front coded, so identifiers sharing a prefix (like the generated
+ * {@code wizard-step-N} identifiers) only store their differing suffix, and
+ * all numbers are stored as variable length integers. The encoded form can
+ * optionally be deflate compressed, which pays off for wizards with many
+ * steps.
+ */
+public final class WizardStateCodec {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int COMPRESSED_FLAG = 0x80;
+
+    private static final int URI_FRAGMENT_ENABLED_FLAG = 0x01;
+
+    /** Compressed states inflating to more than this are rejected. */
+    private static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private WizardStateCodec() {
+    }
+
+    /**
+     * Encodes the given state without compression.
+     * 
+     * @param state
+     * @return the encoded state.
+     */
+    public static byte[] encode(WizardState state) {
+        return encode(state, false);
+    }
+
+    /**
+     * Encodes the given state.
+     * 
+     * @param state
+     * @param compress
+     *            {@code true} to deflate compress the encoded state.
+     * @return the encoded state.
+     */
+    public static byte[] encode(WizardState state, boolean compress) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(FORMAT_VERSION | (compress ? COMPRESSED_FLAG : 0));
+            if (compress) {
+                DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+                writeState(state, out);
+                out.finish();
+            } else {
+                writeState(state, bytes);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // This should never happen with in-memory streams
+            throw new RuntimeException("Failed to encode wizard state", e);
+        }
+    }
+
+    /**
+     * Decodes a state encoded with {@link #encode(WizardState, boolean)}.
+     * 
+     * @param encoded
+     * @return the decoded state.
+     * @throws IllegalArgumentException
+     *             if the given bytes are not a valid encoded state.
+     */
+    public static WizardState decode(byte[] encoded) {
+        if (encoded.length == 0) {
+            throw new IllegalArgumentException("Empty wizard state");
+        }
+        int header = encoded[0] & 0xff;
+        if ((header & ~COMPRESSED_FLAG) != FORMAT_VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported wizard state format " + header);
+        }
+        try {
+            ByteArrayInputStream in = new ByteArrayInputStream(encoded, 1,
+                    encoded.length - 1);
+            if ((header & COMPRESSED_FLAG) != 0) {
+                // inflated up front, so that the counts and lengths can be
+                // checked against the remaining input
+                in = new ByteArrayInputStream(inflate(in));
+            }
+            return readState(new DataInputStream(in));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupted wizard state", e);
+        }
+    }
+
+    private static byte[] inflate(InputStream compressed) throws IOException {
+        InputStream in = new InflaterInputStream(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            if (out.size() > MAX_DECOMPRESSED_SIZE) {
+                throw new IOException("Wizard state too large");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeState(WizardState state, OutputStream out)
+            throws IOException {
+        int stepCount = state.getStepCount();
+        writeVarInt(out, stepCount);
+        byte[] previous = new byte[0];
+        for (int i = 0; i < stepCount; i++) {
+            byte[] id = state.getStepId(i).getBytes(UTF8);
+            int shared = 0;
+            int maxShared = Math.min(previous.length, id.length);
+            while (shared < maxShared && previous[shared] == id[shared]) {
+                shared++;
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, id.length - shared);
+            out.write(id, shared, id.length - shared);
+            previous = id;
+        }
+        writeVarInt(out, state.getCurrentIndex() + 1);
+        writeVarInt(out, state.getLastCompletedIndex() + 1);
+        out.write(state.getLinkMode().ordinal());
+        out.write(state.isUriFragmentEnabled() ? URI_FRAGMENT_ENABLED_FLAG : 0);
+    }
+
+    private static WizardState readState(DataInputStream in)
+            throws IOException {
+        int stepCount = readVarInt(in);
+        // each step takes at least two bytes
+        if (stepCount > in.available() / 2) {
+            throw new IOException("Invalid step count " + stepCount);
+        }
+        String[] stepIds = new String[stepCount];
+        byte[] previous = new byte[0];
+        for (int i = 0; i < stepCount; i++) {
+            int shared = readVarInt(in);
+            int suffixLength = readVarInt(in);
+            if (shared > previous.length) {
+                throw new IOException("Invalid shared prefix length " + shared);
+            }
+            if (suffixLength > in.available()) {
+                throw new IOException("Invalid identifier length "
+                        + suffixLength);
+            }
+            byte[] id = new byte[shared + suffixLength];
+            System.arraycopy(previous, 0, id, 0, shared);
+            in.readFully(id, shared, suffixLength);
+            stepIds[i] = new String(id, UTF8);
+            previous = id;
+        }
+        int currentIndex = readVarInt(in) - 1;
+        int lastCompletedIndex = readVarInt(in) - 1;
+        int linkMode = in.readUnsignedByte();
+        if (linkMode >= LinkMode.values().length) {
+            throw new IOException("Invalid link mode " + linkMode);
+        }
+        int flags = in.readUnsignedByte();
+        try {
+            return new WizardState(stepIds, currentIndex, lastCompletedIndex,
+                    LinkMode.values()[linkMode],
+                    (flags & URI_FRAGMENT_ENABLED_FLAG) != 0);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Variable length integer overflow");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+}
@@ -5,7 +5,10 @@ import com.vaadin.ui.Component;
 public interface WizardStep {
 
     /**
-     * Returns the caption of this WizardStep.
+     * Returns the caption of this WizardStep. The changed caption of a step is
+     * shown when the step is entered or left. Use
+     * {@link WizardProgressBar#refreshSteps(WizardStep...)} to show other
+     * changes.
      * 
      * @return the caption of this WizardStep.
      */
@@ -0,0 +1,21 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+
+/**
+ * Factory for creating a {@link WizardStep} on demand. Used with
+ * {@link Wizard#addStep(WizardStepFactory, String, String)} to postpone
+ * creating a step and its content until the user first navigates to it.
+ * Factories are serialized together with the session, like the Wizard.
+ */
+public interface WizardStepFactory extends Serializable {
+
+    /**
+     * Creates the {@link WizardStep}. This method is called at most once per
+     * registered step, when the step is needed for the first time.
+     * 
+     * @return the created WizardStep, never {@code null}.
+     */
+    public WizardStep createStep();
+
+}
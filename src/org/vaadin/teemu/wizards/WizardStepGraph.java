@@ -0,0 +1,381 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directed acyclic graph of {@link WizardStep}s for wizards whose flow
+ * branches. The steps are connected with edges that can be guarded with a
+ * {@link StepGuard}. Starting from the start step, the path of the wizard is
+ * resolved by following from each step the first edge, in the order they
+ * were added, whose guard is open. The path ends at a step without open
+ * edges.
+ * 
+ * <p>
+ * The graph is built before it is given to a {@link Wizard} with
+ * {@link Wizard#setStepGraph(WizardStepGraph)}, after which only the guard
+ * inputs can be changed. The Wizard shows and navigates the resolved path.
+ * When a guard input changes, the path is resolved again only from the first
+ * step whose edges depend on that input, and only the part of the path
+ * following the active step is updated in the Wizard.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class WizardStepGraph implements Serializable {
+
+    private static class Edge implements Serializable {
+        final String target;
+        final StepGuard guard;
+
+        Edge(String target, StepGuard guard) {
+            this.target = target;
+            this.guard = guard;
+        }
+    }
+
+    private final String startId;
+    private final Map<String, WizardStep> stepsById = new LinkedHashMap<String, WizardStep>();
+    private final Map<String, List<Edge>> edges = new HashMap<String, List<Edge>>();
+    private final Map<String, Object> inputs = new HashMap<String, Object>();
+    private final Map<String, Object> readOnlyInputs = Collections
+            .unmodifiableMap(inputs);
+
+    // computed when the graph is attached to a Wizard
+    private Map<String, Integer> nodeIndex;
+    private BitSet[] reachable;
+    private Map<String, List<String>> dependentSteps;
+
+    private final List<String> path = new ArrayList<String>();
+    private final Map<String, Integer> pathIndex = new HashMap<String, Integer>();
+    private int dirtyFrom = Integer.MAX_VALUE;
+
+    private Wizard wizard;
+
+    /**
+     * Creates a graph whose path starts from the step with the given
+     * identifier. The start step must be added with
+     * {@link #addStep(String, WizardStep)}.
+     * 
+     * @param startId
+     *            identifier of the first step.
+     */
+    public WizardStepGraph(String startId) {
+        if (startId == null) {
+            throw new IllegalArgumentException("Start step id cannot be null.");
+        }
+        this.startId = startId;
+    }
+
+    /**
+     * Adds a step to this graph.
+     * 
+     * @param id
+     *            unique identifier of the step, also used as its URI fragment.
+     * @param step
+     * @throws IllegalArgumentException
+     *             if the id is already used or the step instance has already
+     *             been added with another id.
+     */
+    public void addStep(String id, WizardStep step) {
+        checkModifiable();
+        if (id == null || step == null) {
+            throw new IllegalArgumentException(
+                    "Step id and step cannot be null.");
+        }
+        if (stepsById.containsKey(id)) {
+            throw new IllegalArgumentException(String.format(
+                    "A step with given id %s already exists. You must use unique identifiers for the steps.",
+                    id));
+        }
+        // the Wizard tells its steps apart by identity, so the same instance
+        // cannot be on the path twice
+        for (WizardStep added : stepsById.values()) {
+            if (added == step) {
+                throw new IllegalArgumentException(
+                        "The same step instance cannot be added twice.");
+            }
+        }
+        stepsById.put(id, step);
+    }
+
+    /**
+     * Adds an edge that can always be followed. Edges of a step are tried in
+     * the order they were added, so an unguarded edge added last acts as the
+     * default branch.
+     * 
+     * @param fromId
+     * @param toId
+     */
+    public void addEdge(String fromId, String toId) {
+        addEdge(fromId, toId, null);
+    }
+
+    /**
+     * Adds an edge that can be followed when the given guard is open.
+     * 
+     * @param fromId
+     * @param toId
+     * @param guard
+     *            the guard or {@code null} to always allow following the edge.
+     * @throws IllegalArgumentException
+     *             if either of the steps does not exist.
+     */
+    public void addEdge(String fromId, String toId, StepGuard guard) {
+        checkModifiable();
+        if (!stepsById.containsKey(fromId) || !stepsById.containsKey(toId)) {
+            throw new IllegalArgumentException("No step with id " + fromId
+                    + " or " + toId);
+        }
+        List<Edge> outgoing = edges.get(fromId);
+        if (outgoing == null) {
+            outgoing = new ArrayList<Edge>(2);
+            edges.put(fromId, outgoing);
+        }
+        outgoing.add(new Edge(toId, guard));
+    }
+
+    private void checkModifiable() {
+        if (wizard != null) {
+            throw new IllegalStateException(
+                    "The graph cannot be modified after it has been set to a Wizard.");
+        }
+    }
+
+    /**
+     * Sets the value of a guard input. If the value differs from the previous
+     * one and the graph is used by a Wizard, the path is resolved again from
+     * the first step on the path whose guards depend on the input.
+     * 
+     * @param key
+     * @param value
+     *            the new value or {@code null} to remove the input.
+     */
+    public void setGuardInput(String key, Object value) {
+        Object old = value == null ? inputs.remove(key) : inputs.put(key,
+                value);
+        if (old == value || (old != null && old.equals(value))) {
+            return;
+        }
+        if (wizard == null) {
+            return;
+        }
+        List<String> dependents = dependentSteps.get(key);
+        if (dependents == null) {
+            return;
+        }
+        int firstAffected = Integer.MAX_VALUE;
+        for (String id : dependents) {
+            Integer index = pathIndex.get(id);
+            if (index != null && index < firstAffected) {
+                firstAffected = index;
+            }
+        }
+        if (firstAffected != Integer.MAX_VALUE) {
+            dirtyFrom = Math.min(dirtyFrom, firstAffected);
+            wizard.applyStepGraph();
+        }
+    }
+
+    public Object getGuardInput(String key) {
+        return inputs.get(key);
+    }
+
+    /**
+     * Returns the identifiers of the steps on the resolved path.
+     * 
+     * @return unmodifiable list of step identifiers.
+     */
+    public List<String> getPath() {
+        return Collections.unmodifiableList(path);
+    }
+
+    public WizardStep getStep(String id) {
+        return stepsById.get(id);
+    }
+
+    /**
+     * Returns {@code true} if the step {@code toId} can be reached from the
+     * step {@code fromId} with some guard inputs. A step is not considered
+     * reachable from itself.
+     */
+    public boolean isReachable(String fromId, String toId) {
+        prepare();
+        Integer from = nodeIndex.get(fromId);
+        Integer to = nodeIndex.get(toId);
+        return from != null && to != null && reachable[from].get(to);
+    }
+
+    /**
+     * Computes the reachability of the steps and the guard input
+     * dependencies. Fails if the graph has a cycle or steps that cannot be
+     * reached from the start step.
+     */
+    private void prepare() {
+        if (reachable != null) {
+            return;
+        }
+        if (!stepsById.containsKey(startId)) {
+            throw new IllegalStateException("Start step " + startId
+                    + " has not been added.");
+        }
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        List<String> ids = new ArrayList<String>(stepsById.keySet());
+        for (int i = 0; i < ids.size(); i++) {
+            index.put(ids.get(i), i);
+        }
+
+        // depth first search, reachability of a step is the union of the
+        // reachability of its successors
+        BitSet[] result = new BitSet[ids.size()];
+        BitSet onStack = new BitSet(ids.size());
+        reach(index.get(startId), ids, index, result, onStack);
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) {
+                throw new IllegalStateException("Step " + ids.get(i)
+                        + " cannot be reached from the start step.");
+            }
+        }
+
+        Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<Edge>> entry : edges.entrySet()) {
+            for (Edge edge : entry.getValue()) {
+                if (edge.guard == null) {
+                    continue;
+                }
+                for (String key : edge.guard.getInputKeys()) {
+                    List<String> steps = dependents.get(key);
+                    if (steps == null) {
+                        steps = new ArrayList<String>(2);
+                        dependents.put(key, steps);
+                    }
+                    if (!steps.contains(entry.getKey())) {
+                        steps.add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        nodeIndex = index;
+        reachable = result;
+        dependentSteps = dependents;
+    }
+
+    private BitSet reach(int node, List<String> ids,
+            Map<String, Integer> index, BitSet[] result, BitSet onStack) {
+        if (result[node] != null) {
+            return result[node];
+        }
+        if (onStack.get(node)) {
+            throw new IllegalStateException("Step graph has a cycle through "
+                    + ids.get(node));
+        }
+        onStack.set(node);
+        BitSet reachableFromNode = new BitSet(ids.size());
+        List<Edge> outgoing = edges.get(ids.get(node));
+        if (outgoing != null) {
+            for (Edge edge : outgoing) {
+                int target = index.get(edge.target);
+                reachableFromNode.set(target);
+                reachableFromNode.or(reach(target, ids, index, result,
+                        onStack));
+            }
+        }
+        onStack.clear(node);
+        result[node] = reachableFromNode;
+        return reachableFromNode;
+    }
+
+    void attach(Wizard wizard) {
+        if (this.wizard != null) {
+            throw new IllegalStateException(
+                    "The graph is already used by a Wizard.");
+        }
+        prepare();
+        this.wizard = wizard;
+        path.clear();
+        pathIndex.clear();
+        dirtyFrom = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns {@code true} if the path needs to be resolved again when the
+     * step at the given position becomes active.
+     */
+    boolean isDirtyAt(int anchor) {
+        return dirtyFrom != Integer.MAX_VALUE && anchor <= dirtyFrom;
+    }
+
+    /**
+     * Resolves the path again from the first step whose choice of edge may
+     * have changed, keeping the path up to the given anchor position. Steps
+     * before the anchor whose choice may have changed are resolved when the
+     * anchor moves back to them.
+     * 
+     * @param anchor
+     *            position of the active step, or -1 if none.
+     * @return the first position of the path that changed or -1 if the path
+     *         did not change.
+     */
+    int resolve(int anchor) {
+        if (path.isEmpty()) {
+            path.add(startId);
+            pathIndex.put(startId, 0);
+            extendPath();
+            dirtyFrom = Integer.MAX_VALUE;
+            return 0;
+        }
+        if (dirtyFrom == Integer.MAX_VALUE) {
+            return -1;
+        }
+        int from = Math.max(dirtyFrom, anchor);
+        if (dirtyFrom >= anchor) {
+            dirtyFrom = Integer.MAX_VALUE;
+        }
+
+        List<String> oldTail = new ArrayList<String>(path.subList(from + 1,
+                path.size()));
+        while (path.size() > from + 1) {
+            pathIndex.remove(path.remove(path.size() - 1));
+        }
+        extendPath();
+
+        List<String> newTail = path.subList(from + 1, path.size());
+        int unchanged = 0;
+        while (unchanged < oldTail.size() && unchanged < newTail.size()
+                && oldTail.get(unchanged).equals(newTail.get(unchanged))) {
+            unchanged++;
+        }
+        if (unchanged == oldTail.size() && unchanged == newTail.size()) {
+            return -1;
+        }
+        return from + 1 + unchanged;
+    }
+
+    private void extendPath() {
+        // the graph is acyclic, so the walk terminates
+        String next;
+        while ((next = follow(path.get(path.size() - 1))) != null) {
+            pathIndex.put(next, path.size());
+            path.add(next);
+        }
+    }
+
+    private String follow(String id) {
+        List<Edge> outgoing = edges.get(id);
+        if (outgoing != null) {
+            for (Edge edge : outgoing) {
+                if (edge.guard == null || edge.guard.isOpen(readOnlyInputs)) {
+                    return edge.target;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -4,5 +4,5 @@ import com.google.gwt.event.shared.EventHandler;
 
 public interface ProgressBarItemClickHandler extends EventHandler {
 
-    void onProgressBarItemClicked(String id);
+    void onProgressBarItemClicked(int index);
 }
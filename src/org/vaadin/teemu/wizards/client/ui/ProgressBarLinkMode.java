@@ -0,0 +1,11 @@
+package org.vaadin.teemu.wizards.client.ui;
+
+/**
+ * Which steps of the progress bar are shown as links, mirrors
+ * {@code Wizard.LinkMode}.
+ */
+public enum ProgressBarLinkMode {
+
+    NONE, PREVIOUS, ALL
+
+}
@@ -0,0 +1,20 @@
+package org.vaadin.teemu.wizards.client.ui;
+
+import java.io.Serializable;
+
+/**
+ * Changed caption of a single progress bar item, sent to the client instead
+ * of the whole list of captions.
+ */
+public class StepDelta implements Serializable {
+
+    private static final long serialVersionUID = 2085419960716355072L;
+
+    /**
+     * Position of the changed step.
+     */
+    public int index;
+
+    public String caption;
+
+}
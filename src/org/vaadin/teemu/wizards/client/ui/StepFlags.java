@@ -0,0 +1,47 @@
+package org.vaadin.teemu.wizards.client.ui;
+
+/**
+ * Encodes a set of step indices as a string of hexadecimal digits, four steps
+ * per digit with the lowest index in the lowest bit of the first digit.
+ * Trailing zero digits are left out, so an empty set is an empty string.
+ */
+public final class StepFlags {
+
+    private static final String DIGITS = "0123456789abcdef";
+
+    private StepFlags() {
+    }
+
+    /**
+     * Returns the encoded form of the indices whose flag is {@code true}.
+     */
+    public static String encode(boolean[] flags) {
+        int length = flags.length;
+        while (length > 0 && !flags[length - 1]) {
+            length--;
+        }
+        StringBuilder encoded = new StringBuilder((length + 3) / 4);
+        for (int i = 0; i < length; i += 4) {
+            int digit = 0;
+            for (int bit = 0; bit < 4 && i + bit < length; bit++) {
+                if (flags[i + bit]) {
+                    digit |= 1 << bit;
+                }
+            }
+            encoded.append(DIGITS.charAt(digit));
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Returns {@code true} if the given index is part of the encoded set.
+     */
+    public static boolean isSet(String encoded, int index) {
+        if (encoded == null || index < 0 || index / 4 >= encoded.length()) {
+            return false;
+        }
+        int digit = DIGITS.indexOf(encoded.charAt(index / 4));
+        return (digit & (1 << (index % 4))) != 0;
+    }
+
+}
@@ -1,7 +1,10 @@
 package org.vaadin.teemu.wizards.client.ui;
 
 import java.util.ArrayList;
+import java.util.List;
 
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.Style.Unit;
@@ -11,6 +14,7 @@ import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.ui.CellPanel;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.HorizontalPanel;
+import com.google.gwt.user.client.ui.InsertPanel;
 import com.google.gwt.user.client.ui.VerticalPanel;
 import com.google.gwt.user.client.ui.Widget;
 import com.vaadin.client.ApplicationConnection;
@@ -41,11 +45,44 @@ public class VWizardProgressBar extends FlowPanel implements
 
     private boolean _completed;
 
+    private boolean _completing;
+
     private boolean _showProgressIndicatorBar;
 
-    private String _linkmode;
+    private ProgressBarLinkMode _linkmode = ProgressBarLinkMode.NONE;
+
+    private int _currentIndex = -1;
+
+    private int _completedUpTo;
+
+    private String _notCompleted = "";
+
+    private ArrayList<String> _captions = null;
+
+    private int _visibleStepCount;
+
+    private final List<ProgressBarItem> items = new ArrayList<ProgressBarItem>();
+
+    // the collapsed steps before and after the rendered ones
+    private ProgressBarItem gapBefore;
+    private ProgressBarItem gapAfter;
+
+    // first rendered step when only some of the steps are rendered
+    private int windowStart;
+    // the current step the rendered steps have been placed around
+    private int windowCurrent = -1;
 
-    private ArrayList<SerializableStep> _steps = null;
+    // what has been rendered to the DOM outside of the items
+    private String renderedBarSize;
+    private boolean renderedCompleting;
+
+    private int domWriteCount;
+    private int captionMeasureCount;
+
+    // the width the caption heights have been measured with
+    private int measuredWidth = -1;
+
+    private boolean renderScheduled;
 
     private ProgressBarItemClickHandler progressBarItemClickHandler = null;
 
@@ -65,14 +102,14 @@ public class VWizardProgressBar extends FlowPanel implements
         super.setStyleName(s + " " + combinedStylename + " " + style);
     }
 
-    private void init(boolean horizontal, boolean showProgressIndicatorBar) {
+    private void init(boolean horizontal, boolean showProgressIndicatorBar,
+            int maxWidth) {
         if (horizontal) {
             captions = new HorizontalPanel();
             captions.setWidth("100%");
             combinedStylename = CLASSNAME + " wiz-horiz";
             setStyleName("");
         } else {
-            int maxWidth = getOffsetWidth();
             captions = new VerticalPanel();
             // captions.setHeight("100%");
             if (showProgressIndicatorBar) {
@@ -85,6 +122,12 @@ public class VWizardProgressBar extends FlowPanel implements
         }
         add(captions);
 
+        // the steps are rendered between these two
+        gapBefore = new ProgressBarItem(true);
+        gapAfter = new ProgressBarItem(true);
+        captions.add(gapBefore);
+        captions.add(gapAfter);
+
         if (showProgressIndicatorBar) {
             Element barWrapperElement = DOM.createDiv();
             barWrapperElement.setClassName("bar-wrapper");
@@ -99,157 +142,386 @@ public class VWizardProgressBar extends FlowPanel implements
     }
 
     /**
-     * Called whenever an update is received from the server
+     * Called whenever an update is received from the server. The progress bar
+     * is rendered on the next animation frame, so that several updates in a
+     * row are rendered only once.
      */
     public void update() {
+        if (renderScheduled) {
+            return;
+        }
+        renderScheduled = true;
+        AnimationScheduler.get().requestAnimationFrame(new AnimationCallback() {
+
+            @Override
+            public void execute(double timestamp) {
+                renderScheduled = false;
+                if (isAttached()) {
+                    render();
+                }
+            }
+        });
+    }
+
+    /**
+     * Renders the progress bar right away, for example when the layout phase
+     * has changed its size.
+     */
+    public void renderNow() {
+        if (isAttached()) {
+            render();
+        }
+    }
 
+    /**
+     * Renders the progress bar. The size of the progress bar and the heights
+     * of the captions written by the previous rendering are read before
+     * anything is written, while the layout from the previous frame is still
+     * valid. Only then are the items, captions, sizes and style names
+     * written, so the browser never has to lay out the page in the middle of
+     * a rendering. Captions that change are measured at the start of the next
+     * frame, which renders again with their new heights. Only the parts of
+     * the DOM that differ from what has been rendered before are written.
+     * 
+     * <p>
+     * When the number of visible steps is limited, only that many steps
+     * around the current step are rendered and the steps before and after
+     * them are shown as collapsed groups, so the size of the DOM does not
+     * depend on the number of steps.
+     * </p>
+     */
+    void render() {
+
+        // read phase, the layout is still valid from the previous frame
         int offsetWidth = getOffsetWidth();
-        // BUG(?!) if component is 100% height at server side, no offset height
-        // is found the first round trip
         int offsetHeight = getOffsetHeight();
 
-        if (!initialized) {
-            init(_isHorizontal, _showProgressIndicatorBar);
+        // the caption heights are only needed for the vertical bar
+        if (initialized && !_isHorizontal) {
+            // the captions wrap differently when the width changes
+            boolean resized = (offsetWidth != measuredWidth);
+            measuredWidth = offsetWidth;
+            measureCaptionHeight(gapBefore, resized);
+            for (ProgressBarItem item : items) {
+                measureCaptionHeight(item, resized);
+            }
+            measureCaptionHeight(gapAfter, resized);
         }
 
-        int numberOfSteps = _steps.size();
-        double stepWidth = offsetWidth / (double) numberOfSteps;
-        double stepHeight = offsetHeight / (double) numberOfSteps;
-        int totalHeight = 0;
-        int i = -1;
-        for (SerializableStep step : _steps) {
-            i++;
+        // write phase
+        if (!initialized) {
+            init(_isHorizontal, _showProgressIndicatorBar, offsetWidth);
+        }
+        if (_captions == null) {
+            // the steps have not been received yet
+            return;
+        }
 
-            String stepId = step.stepid;
+        int numberOfSteps = _captions.size();
+        int firstStep = 0;
+        int renderedSteps = numberOfSteps;
+        if (_visibleStepCount > 0 && _visibleStepCount < numberOfSteps) {
+            firstStep = placeWindow(numberOfSteps);
+            renderedSteps = _visibleStepCount;
+        }
+        int endStep = firstStep + renderedSteps;
 
+        for (int i = 0; i < renderedSteps; i++) {
             ProgressBarItem item;
-            if (captions.getWidgetCount() > i) {
+            if (items.size() > i) {
                 // get the existing widget for updating
-                item = (ProgressBarItem) captions.getWidget(i);
-                item.setStepId(stepId);
+                item = items.get(i);
             } else {
-                // create new widget and add it to the layout
-                item = new ProgressBarItem(i + 1, stepId,
-                        progressBarItemClickHandler);
-                captions.add(item);
+                // create new widget and add it after the previous one
+                item = new ProgressBarItem(false);
+                ((InsertPanel) captions).insert(item, i + 1);
+                items.add(item);
+                domWriteCount++;
             }
+            item.setStep(firstStep + i, _captions.get(firstStep + i));
+        }
+
+        // remove the items that are no longer rendered
+        while (items.size() > renderedSteps) {
+            captions.remove(items.remove(items.size() - 1));
+            domWriteCount++;
+        }
+
+        gapBefore.setCollapsedSteps(firstStep);
+        gapAfter.setCollapsedSteps(numberOfSteps - endStep);
 
-            boolean clickableStep = isLinkStep(_linkmode, step.current,
-                    step.completed);
-            item.setAsLink(clickableStep);
-            item.setCaption(step.caption);
-            int captionHeight = item.getCaptionElement().getOffsetHeight();
+        // the items in the order they are shown
+        List<ProgressBarItem> slots = new ArrayList<ProgressBarItem>(
+                renderedSteps + 2);
+        if (firstStep > 0) {
+            slots.add(gapBefore);
+        }
+        slots.addAll(items);
+        if (endStep < numberOfSteps) {
+            slots.add(gapAfter);
+        }
+
+        double stepWidth = offsetWidth / (double) slots.size();
+        double stepHeight = offsetHeight / (double) slots.size();
+        int totalHeight = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            ProgressBarItem item = slots.get(i);
+
+            // the steps shown by this item
+            int from;
+            int to;
+            if (item == gapBefore) {
+                from = 0;
+                to = firstStep;
+            } else if (item == gapAfter) {
+                from = endStep;
+                to = numberOfSteps;
+            } else {
+                from = item.getStepIndex();
+                to = from + 1;
+            }
+            boolean current = from <= _currentIndex && _currentIndex < to;
+            boolean completed = isCompleted(from, to);
+
+            int captionHeight = item.getCaptionHeight();
             totalHeight += captionHeight;
 
             // update the barElement width according to the current step
-            if (_showProgressIndicatorBar && !_completed && step.current) {
+            if (_showProgressIndicatorBar && !_completed && current) {
                 if (_isHorizontal) {
-                    barElement.getStyle().setWidth(
-                            (i + 1) * stepWidth - stepWidth / 2, Unit.PX);
+                    setBarSize((i + 1) * stepWidth - stepWidth / 2, Unit.PX);
                 } else {
 
                     if (_hasVerticalSpacing) {
-                        barElement.getStyle().setHeight(
-                                (i + 1) * stepHeight - stepHeight
-                                        + captionHeight / 2, Unit.PX);
+                        setBarSize((i + 1) * stepHeight - stepHeight
+                                + captionHeight / 2, Unit.PX);
                     } else {
-                        barElement.getStyle().setHeight(
-                                totalHeight - captionHeight / 2, Unit.PX);
+                        setBarSize(totalHeight - captionHeight / 2, Unit.PX);
                     }
                 }
             }
             if (_isHorizontal) {
-                item.setWidth(stepWidth + "px");
+                item.setStepWidth(stepWidth + "px");
             } else {
                 if (_hasVerticalSpacing) {
-                    item.setHeight(stepHeight + "px");
+                    item.setStepHeight(stepHeight + "px");
                 }
             }
 
             boolean first = (i == 0);
-            boolean last = (i == _steps.size() - 1);
-            updateStyleNames(step, item, first, last, _linkmode);
+            boolean last = (i == slots.size() - 1);
+            // the collapsed groups are always clickable
+            boolean link = item.isGap()
+                    || isLinkStep(_linkmode, current, completed);
+            item.setStyles(getStyles(completed, current, first, last, link,
+                    _linkmode));
         }
 
         if (_showProgressIndicatorBar && _completed) {
-            if (_isHorizontal) {
-                barElement.getStyle().setWidth(100, Unit.PCT);
+            setBarSize(100, Unit.PCT);
+        }
+
+        // the completion stages are running at the server
+        if (_completing != renderedCompleting) {
+            if (_completing) {
+                addStyleName("completing");
             } else {
-                barElement.getStyle().setHeight(100, Unit.PCT);
+                removeStyleName("completing");
+            }
+            renderedCompleting = _completing;
+            domWriteCount++;
+        }
+
+        if (!_isHorizontal) {
+            for (ProgressBarItem item : slots) {
+                if (!item.isCaptionMeasured()) {
+                    // measure the changed captions on the next frame
+                    update();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void measureCaptionHeight(ProgressBarItem item, boolean resized) {
+        if (resized) {
+            item.invalidateCaptionHeight();
+        }
+        item.measureCaptionHeight();
+    }
+
+    /**
+     * Returns the first step to render when only some of the steps are
+     * rendered. The rendered steps follow the current step and otherwise stay
+     * where they have been scrolled to.
+     */
+    private int placeWindow(int numberOfSteps) {
+        if (_currentIndex != windowCurrent) {
+            windowCurrent = _currentIndex;
+            if (_currentIndex < windowStart
+                    || _currentIndex >= windowStart + _visibleStepCount) {
+                windowStart = _currentIndex - _visibleStepCount / 2;
+            }
+        }
+        windowStart = Math.max(0,
+                Math.min(windowStart, numberOfSteps - _visibleStepCount));
+        return windowStart;
+    }
+
+    /**
+     * Shows the next or the previous steps when only some of the steps are
+     * rendered.
+     * 
+     * @param forward
+     *            {@code true} to show the steps after the rendered ones.
+     */
+    private void scrollWindow(boolean forward) {
+        if (forward) {
+            windowStart += _visibleStepCount;
+        } else {
+            windowStart -= _visibleStepCount;
+        }
+        update();
+    }
+
+    private boolean isCompleted(int from, int to) {
+        if (to > _completedUpTo) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (StepFlags.isSet(_notCompleted, i)) {
+                return false;
             }
         }
+        return true;
     }
 
-    private boolean isLinkStep(String linkmode, boolean isCurrentStep,
-            boolean isCompletedStep) {
-        if (linkmode.equals("none")) {
+    /**
+     * Sets the width of the bar in horizontal mode and its height in vertical
+     * mode.
+     */
+    private void setBarSize(double size, Unit unit) {
+        String value = size + unit.getType();
+        if (!value.equals(renderedBarSize)) {
+            barElement.getStyle().setProperty(
+                    _isHorizontal ? "width" : "height", value);
+            renderedBarSize = value;
+            domWriteCount++;
+        }
+    }
+
+    /**
+     * Returns the number of DOM writes done by {@link #render()} so far.
+     */
+    int getDomWriteCount() {
+        return domWriteCount;
+    }
+
+    /**
+     * Returns the number of caption heights measured by {@link #render()} so
+     * far.
+     */
+    int getCaptionMeasureCount() {
+        return captionMeasureCount;
+    }
+
+    private boolean isLinkStep(ProgressBarLinkMode linkmode,
+            boolean isCurrentStep, boolean isCompletedStep) {
+        if (linkmode == ProgressBarLinkMode.NONE) {
             return false;
         }
 
-        if (linkmode.equals("previous") && !isCurrentStep && isCompletedStep) {
+        if (linkmode == ProgressBarLinkMode.PREVIOUS && !isCurrentStep
+                && isCompletedStep) {
             return true;
         }
-        if (linkmode.equals("all") && !isCurrentStep) {
+        if (linkmode == ProgressBarLinkMode.ALL && !isCurrentStep) {
             return true;
         }
 
         return false;
     }
 
-    private void updateStyleNames(SerializableStep step, ProgressBarItem item,
-            boolean first, boolean last, String linkmode) {
-        if (step.completed) {
-            item.addStyleName("completed");
-        } else {
-            item.removeStyleName("completed");
+    private int getStyles(boolean completed, boolean current, boolean first,
+            boolean last, boolean link, ProgressBarLinkMode linkmode) {
+        int styles = 0;
+        if (completed) {
+            styles |= ProgressBarItem.COMPLETED;
         }
-        if (step.current) {
-            item.addStyleName("current");
-        } else {
-            item.removeStyleName("current");
+        if (current) {
+            styles |= ProgressBarItem.CURRENT;
         }
         if (first) {
-            item.addStyleName("first");
-        } else {
-            item.removeStyleName("first");
+            styles |= ProgressBarItem.FIRST;
         }
         if (last) {
-            item.addStyleName("last");
-        } else {
-            item.removeStyleName("last");
+            styles |= ProgressBarItem.LAST;
         }
-
-        if (linkmode.equals("all")) {
-            item.addStyleName("all-linkmode");
-        } else {
-            item.removeStyleName("all-linkmode");
+        if (linkmode == ProgressBarLinkMode.ALL) {
+            styles |= ProgressBarItem.ALL_LINKMODE;
+        }
+        if (link) {
+            styles |= ProgressBarItem.LINK;
         }
+        return styles;
     }
 
-    private static class ProgressBarItem extends Widget {
+    /**
+     * A single step of the progress bar or a collapsed group of steps.
+     * Remembers what has been rendered to its DOM so that unchanged values
+     * are not written again.
+     */
+    private class ProgressBarItem extends Widget {
+
+        static final int COMPLETED = 1;
+        static final int CURRENT = 1 << 1;
+        static final int FIRST = 1 << 2;
+        static final int LAST = 1 << 3;
+        static final int ALL_LINKMODE = 1 << 4;
+        static final int LINK = 1 << 5;
 
-        private final int index;
-        private String stepId;
+        private final String[] styleNames = { "completed", "current", "first",
+                "last", "all-linkmode", "link" };
+
+        private final boolean gap;
+        private int index = -1;
         private Element captionElement;
-        private boolean asLink;
 
-        public ProgressBarItem(int index, final String stepId,
-                final ProgressBarItemClickHandler handler) {
+        private int renderedStyles;
+        private String renderedCaption;
+        private boolean captionRendered;
+        private int renderedCollapsedSteps;
+        private String renderedWidth;
+        private String renderedHeight;
+
+        // the last measured height, kept until the caption is measured again
+        private int captionHeight;
+        private boolean captionMeasured;
+
+        public ProgressBarItem(boolean gap) {
             Element root = Document.get().createDivElement();
             setElement(root);
             setStyleName("step");
-            this.index = index;
-            this.stepId = stepId;
+            this.gap = gap;
             captionElement = Document.get().createDivElement();
+            captionElement.setClassName("step-caption");
             root.appendChild(captionElement);
+            if (gap) {
+                addStyleName("gap");
+                captionElement.setInnerHTML("&hellip;");
+                setVisible(false);
+            }
 
             addDomHandler(new ClickHandler() {
 
                 @Override
                 public void onClick(ClickEvent event) {
 
-                    if (asLink) {
-                        handler.onProgressBarItemClicked(ProgressBarItem.this.stepId);
+                    if (ProgressBarItem.this.gap) {
+                        scrollWindow(ProgressBarItem.this == gapAfter);
+                    } else if (isAsLink()) {
+                        progressBarItemClickHandler
+                                .onProgressBarItemClicked(index);
                     } else {
                         System.out.println("Clicked, but not as a link");
                     }
@@ -258,32 +530,117 @@ public class VWizardProgressBar extends FlowPanel implements
             }, ClickEvent.getType());
         }
 
-        public void setStepId(String stepId) {
-            this.stepId = stepId;
+        public boolean isGap() {
+            return gap;
         }
 
-        public void setCaption(String caption) {
+        public int getStepIndex() {
+            return index;
+        }
 
-            captionElement.setClassName("step-caption");
-            captionElement.setInnerHTML("<span>" + index + ".</span> "
+        /**
+         * Shows the step with the given index and caption in this item.
+         */
+        public void setStep(int index, String caption) {
+            if (captionRendered
+                    && index == this.index
+                    && (caption == null ? renderedCaption == null : caption
+                            .equals(renderedCaption))) {
+                return;
+            }
+            captionElement.setInnerHTML("<span>" + (index + 1) + ".</span> "
                     + caption);
+            this.index = index;
+            renderedCaption = caption;
+            captionRendered = true;
+            captionMeasured = false;
+            domWriteCount++;
+        }
 
+        /**
+         * Sets the number of steps collapsed into this group, which is hidden
+         * when there are none.
+         */
+        public void setCollapsedSteps(int count) {
+            if (count == renderedCollapsedSteps) {
+                return;
+            }
+            if (count == 0 || renderedCollapsedSteps == 0) {
+                setVisible(count > 0);
+                captionMeasured = false;
+                domWriteCount++;
+            }
+            if (count > 0) {
+                setTitle(count + " steps");
+                domWriteCount++;
+            }
+            renderedCollapsedSteps = count;
         }
 
         protected Element getCaptionElement() {
             return captionElement;
         }
 
+        public void invalidateCaptionHeight() {
+            captionMeasured = false;
+        }
+
+        /**
+         * Reads the height of the caption unless it is already known. Must
+         * only be called before anything is written in a rendering.
+         */
+        public void measureCaptionHeight() {
+            if (!captionMeasured) {
+                captionHeight = captionElement.getOffsetHeight();
+                captionMeasured = true;
+                captionMeasureCount++;
+            }
+        }
+
+        public boolean isCaptionMeasured() {
+            return captionMeasured;
+        }
+
+        /**
+         * Returns the last measured height of the caption, {@code 0} if it has
+         * never been measured.
+         */
+        public int getCaptionHeight() {
+            return captionHeight;
+        }
+
         public boolean isAsLink() {
-            return asLink;
+            return (renderedStyles & LINK) != 0;
         }
 
-        public void setAsLink(boolean asLink) {
-            this.asLink = asLink;
-            if (asLink) {
-                addStyleName("link");
-            } else {
-                removeStyleName("link");
+        /**
+         * Sets the style names of this item, given as a combination of the
+         * style constants.
+         */
+        public void setStyles(int styles) {
+            int changed = styles ^ renderedStyles;
+            for (int i = 0; i < styleNames.length; i++) {
+                if ((changed & (1 << i)) != 0) {
+                    setStyleName(styleNames[i], (styles & (1 << i)) != 0);
+                    domWriteCount++;
+                }
+            }
+            renderedStyles = styles;
+        }
+
+        public void setStepWidth(String width) {
+            if (!width.equals(renderedWidth)) {
+                setWidth(width);
+                renderedWidth = width;
+                domWriteCount++;
+            }
+        }
+
+        public void setStepHeight(String height) {
+            if (!height.equals(renderedHeight)) {
+                setHeight(height);
+                renderedHeight = height;
+                domWriteCount++;
             }
         }
     }
@@ -300,16 +657,51 @@ public class VWizardProgressBar extends FlowPanel implements
         this._completed = _completed;
     }
 
+    public void set_completing(boolean _completing) {
+        this._completing = _completing;
+    }
+
     public void set_showProgressIndicatorBar(boolean _showProgressIndicatorBar) {
         this._showProgressIndicatorBar = _showProgressIndicatorBar;
     }
 
-    public void set_linkmode(String _linkmode) {
+    public void set_linkmode(ProgressBarLinkMode _linkmode) {
         this._linkmode = _linkmode;
     }
 
-    public void set_steps(ArrayList<SerializableStep> _steps) {
-        this._steps = _steps;
+    public void set_currentIndex(int _currentIndex) {
+        this._currentIndex = _currentIndex;
+    }
+
+    /**
+     * Sets the completed steps: those before {@code completedUpTo} except the
+     * ones in {@code notCompleted}, encoded with {@link StepFlags}.
+     */
+    public void set_completedSteps(int completedUpTo, String notCompleted) {
+        _completedUpTo = completedUpTo;
+        _notCompleted = notCompleted;
+    }
+
+    /**
+     * Sets the number of steps rendered at a time, {@code 0} to render all
+     * steps.
+     */
+    public void set_visibleStepCount(int _visibleStepCount) {
+        this._visibleStepCount = _visibleStepCount;
+    }
+
+    public void set_captions(ArrayList<String> _captions) {
+        this._captions = _captions;
+    }
+
+    /**
+     * Applies the changed captions to the captions received with
+     * {@link #set_captions(ArrayList)}.
+     */
+    public void applyDeltas(List<StepDelta> deltas) {
+        for (StepDelta delta : deltas) {
+            _captions.set(delta.index, delta.caption);
+        }
     }
 
     @Override
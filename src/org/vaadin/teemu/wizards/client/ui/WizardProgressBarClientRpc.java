@@ -0,0 +1,27 @@
+package org.vaadin.teemu.wizards.client.ui;
+
+import java.util.ArrayList;
+
+import com.vaadin.shared.communication.ClientRpc;
+
+/**
+ * Calls from the server side {@code WizardProgressBar} to its client side
+ * connector. The current and completed steps are part of
+ * {@link WizardProgressBarState}, these calls carry only the captions.
+ */
+public interface WizardProgressBarClientRpc extends ClientRpc {
+
+    /**
+     * Replaces all the steps shown by the progress bar. Sent when the progress
+     * bar is attached and when steps are added, removed or reordered. The
+     * revision identifies this set of steps and is sent back with clicks, so
+     * that clicks on steps that have since moved can be ignored.
+     */
+    public void setSteps(int revision, ArrayList<String> captions);
+
+    /**
+     * Updates only the captions that have changed since the previous call.
+     */
+    public void updateCaptions(ArrayList<StepDelta> deltas);
+
+}
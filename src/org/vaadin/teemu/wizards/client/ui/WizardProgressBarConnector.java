@@ -1,5 +1,7 @@
 package org.vaadin.teemu.wizards.client.ui;
 
+import java.util.ArrayList;
+
 import org.vaadin.teemu.wizards.WizardProgressBar;
 
 import com.google.gwt.core.client.GWT;
@@ -17,6 +19,9 @@ public class WizardProgressBarConnector extends AbstractComponentConnector
     WizardProgressBarServerRpc rpc = RpcProxy.create(
             WizardProgressBarServerRpc.class, this);
 
+    // revision of the steps currently shown
+    private int stepsRevision;
+
     public WizardProgressBarConnector() {
         System.out.println("connector initialized for Wizard");
 
@@ -24,12 +29,30 @@ public class WizardProgressBarConnector extends AbstractComponentConnector
                 new ProgressBarItemClickHandler() {
 
                     @Override
-                    public void onProgressBarItemClicked(String id) {
+                    public void onProgressBarItemClicked(int index) {
                         getRpcProxy(WizardProgressBarServerRpc.class)
-                                .progressBarItemClicked(id);
+                                .progressBarItemClicked(stepsRevision, index);
 
                     }
                 });
+
+        registerRpc(WizardProgressBarClientRpc.class,
+                new WizardProgressBarClientRpc() {
+
+                    @Override
+                    public void setSteps(int revision,
+                            ArrayList<String> captions) {
+                        stepsRevision = revision;
+                        getWidget().set_captions(captions);
+                        getWidget().update();
+                    }
+
+                    @Override
+                    public void updateCaptions(ArrayList<StepDelta> deltas) {
+                        getWidget().applyDeltas(deltas);
+                        getWidget().update();
+                    }
+                });
     }
 
     @Override
@@ -52,20 +75,23 @@ public class WizardProgressBarConnector extends AbstractComponentConnector
         super.onStateChanged(stateChangeEvent);
 
         getWidget().set_completed(getState().completed);
+        getWidget().set_completing(getState().completing);
         getWidget().set_hasVerticalSpacing(getState().verticalspacing);
         getWidget().set_isHorizontal(getState().hasHorizontalWizardProgressBar);
         getWidget().set_linkmode(getState().linkMode);
+        getWidget().set_currentIndex(getState().currentIndex);
+        getWidget().set_completedSteps(getState().completedUpTo,
+                getState().notCompleted);
+        getWidget().set_visibleStepCount(getState().visibleStepCount);
         getWidget().set_showProgressIndicatorBar(
                 getState().showProgressIndicator);
-        getWidget().set_steps(getState().steps);
         getWidget().update();
     }
 
     @Override
     public void layout() {
-
-        getWidget().update();
-
+        // the layout phase expects the sizes to be written before it returns
+        getWidget().renderNow();
     }
 
 }
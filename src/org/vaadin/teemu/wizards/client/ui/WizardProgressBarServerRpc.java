@@ -4,6 +4,10 @@ import com.vaadin.shared.communication.ServerRpc;
 
 public interface WizardProgressBarServerRpc extends ServerRpc {
 
-    public void progressBarItemClicked(String progressBarItemId);
+    /**
+     * Called when the step at the given index is clicked. The revision is the
+     * one received with the steps shown when the step was clicked.
+     */
+    public void progressBarItemClicked(int revision, int index);
 
 }
@@ -1,20 +1,40 @@
 package org.vaadin.teemu.wizards.client.ui;
 
-import java.util.ArrayList;
-
 public class WizardProgressBarState extends
         com.vaadin.shared.AbstractComponentState {
 
-    public ArrayList<SerializableStep> steps = new ArrayList<SerializableStep>();
-
     public boolean hasHorizontalWizardProgressBar;
 
     public boolean showProgressIndicator = true;
 
     public boolean completed;
 
-    public String linkMode;
+    public boolean completing;
+
+    public ProgressBarLinkMode linkMode = ProgressBarLinkMode.NONE;
+
+    /**
+     * Index of the current step or {@code -1} if there is none.
+     */
+    public int currentIndex = -1;
+
+    /**
+     * Steps before this index are completed, except those in
+     * {@link #notCompleted}.
+     */
+    public int completedUpTo;
+
+    /**
+     * Steps before {@link #completedUpTo} that are not completed, encoded with
+     * {@link StepFlags}.
+     */
+    public String notCompleted = "";
 
     public boolean verticalspacing;
 
+    /**
+     * Number of steps rendered at a time, {@code 0} to render all steps.
+     */
+    public int visibleStepCount;
+
 }
\ No newline at end of file
@@ -0,0 +1,24 @@
+package org.vaadin.teemu.wizards.event;
+
+import org.vaadin.teemu.wizards.Wizard;
+
+@SuppressWarnings("serial")
+public class WizardCompletionFailedEvent extends AbstractWizardEvent {
+
+    private final Throwable cause;
+
+    public WizardCompletionFailedEvent(Wizard source, Throwable cause) {
+        super(source);
+        this.cause = cause;
+    }
+
+    /**
+     * Returns the exception thrown by the failed completion stage.
+     * 
+     * @return the cause of the failure.
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+}
@@ -0,0 +1,20 @@
+package org.vaadin.teemu.wizards.event;
+
+import java.io.Serializable;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardCompletionStage;
+
+public interface WizardCompletionFailedListener extends Serializable {
+
+    /**
+     * Called when a {@link WizardCompletionStage} of a {@link Wizard} fails.
+     * The Wizard is not completed and the user may try to finish it again.
+     * 
+     * @param event
+     *            {@link WizardCompletionFailedEvent} object containing details
+     *            about the event
+     */
+    void wizardCompletionFailed(WizardCompletionFailedEvent event);
+
+}
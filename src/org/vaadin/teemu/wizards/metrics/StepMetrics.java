@@ -0,0 +1,85 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Metrics of the steps sharing a single step identifier.
+ */
+public class StepMetrics {
+
+    /**
+     * The {@link org.vaadin.teemu.wizards.WizardStep} methods whose latency is
+     * recorded.
+     */
+    public static enum Hook {
+        ON_ADVANCE, ON_BACK, ON_ACTIVATE, GET_CONTENT
+    }
+
+    private final String stepId;
+    private final LatencyHistogram dwellTime = new LatencyHistogram();
+    private final Map<Hook, LatencyHistogram> hookLatencies = new EnumMap<Hook, LatencyHistogram>(
+            Hook.class);
+    private final StripedCounter transitions = new StripedCounter();
+    private final StripedCounter rejections = new StripedCounter();
+
+    StepMetrics(String stepId) {
+        this.stepId = stepId;
+        // populated once, only read afterwards
+        for (Hook hook : Hook.values()) {
+            hookLatencies.put(hook, new LatencyHistogram());
+        }
+    }
+
+    public String getStepId() {
+        return stepId;
+    }
+
+    /**
+     * Returns the histogram of the time spent on this step between its
+     * activation and leaving it.
+     */
+    public LatencyHistogram getDwellTime() {
+        return dwellTime;
+    }
+
+    /**
+     * Returns the histogram of the time spent in the given method of this
+     * step.
+     */
+    public LatencyHistogram getLatency(Hook hook) {
+        return hookLatencies.get(hook);
+    }
+
+    /**
+     * Returns the number of times this step has been activated.
+     */
+    public long getTransitionCount() {
+        return transitions.sum();
+    }
+
+    /**
+     * Returns the number of times this step has refused to be left.
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    void recordTransition() {
+        transitions.increment();
+    }
+
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    void reset() {
+        dwellTime.reset();
+        for (LatencyHistogram histogram : hookLatencies.values()) {
+            histogram.reset();
+        }
+        transitions.reset();
+        rejections.reset();
+    }
+
+}
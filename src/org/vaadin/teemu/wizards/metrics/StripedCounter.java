@@ -0,0 +1,42 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading its updates over several cells so that threads updating
+ * it concurrently rarely compete for the same cell. Reading the value sums up
+ * all cells and is therefore more expensive than updating it.
+ */
+class StripedCounter {
+
+    private static final int STRIPES = 16;
+    // cells are placed on separate cache lines to avoid false sharing
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES
+            * PADDING);
+
+    void add(long value) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, value);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+}
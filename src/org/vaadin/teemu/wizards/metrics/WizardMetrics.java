@@ -0,0 +1,239 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.vaadin.teemu.wizards.metrics.StepMetrics.Hook;
+
+/**
+ * Timing and transition metrics aggregated over all the
+ * {@link org.vaadin.teemu.wizards.Wizard}s using the same instance, typically
+ * one wizard definition in all sessions. The metrics are recorded per step
+ * identifier with counters that scale to concurrent sessions.
+ * 
+ * <p>
+ * Instances are shared by name, use {@link #forName(String)} to get one and
+ * {@link #registerMBean()} to expose it through the platform MBean server. A
+ * serialized reference resolves to the instance of the same name.
+ * </p>
+ * 
+ * @see org.vaadin.teemu.wizards.Wizard#setMetrics(WizardMetrics)
+ */
+@SuppressWarnings("serial")
+public class WizardMetrics implements WizardMetricsMXBean, Serializable {
+
+    private static final ConcurrentMap<String, WizardMetrics> instances = new ConcurrentHashMap<String, WizardMetrics>();
+
+    private final String name;
+    private transient ConcurrentMap<String, StepMetrics> stepMetrics = new ConcurrentHashMap<String, StepMetrics>();
+    private transient StripedCounter completed = new StripedCounter();
+    private transient StripedCounter cancelled = new StripedCounter();
+    private transient ObjectName objectName;
+
+    private WizardMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the metrics of the given name, creating them if necessary.
+     * 
+     * @param name
+     * @return the shared metrics instance.
+     */
+    public static WizardMetrics forName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null.");
+        }
+        WizardMetrics metrics = instances.get(name);
+        if (metrics == null) {
+            WizardMetrics created = new WizardMetrics(name);
+            metrics = instances.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return forName(name);
+    }
+
+    /**
+     * Registers these metrics to the platform MBean server with the name
+     * {@code org.vaadin.teemu.wizards:type=WizardMetrics,name=<name>}. Does
+     * nothing if already registered.
+     * 
+     * @return the object name of the MBean.
+     * @throws IllegalStateException
+     *             if the registration fails.
+     */
+    public synchronized ObjectName registerMBean() {
+        if (objectName == null) {
+            try {
+                ObjectName on = new ObjectName(
+                        "org.vaadin.teemu.wizards:type=WizardMetrics,name="
+                                + ObjectName.quote(name));
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (!server.isRegistered(on)) {
+                    server.registerMBean(this, on);
+                }
+                objectName = on;
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register metrics "
+                        + name, e);
+            }
+        }
+        return objectName;
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        objectName);
+            } catch (JMException e) {
+                // already unregistered
+            }
+            objectName = null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the metrics of the given step identifier, creating them if
+     * necessary.
+     */
+    public StepMetrics getStepMetrics(String stepId) {
+        StepMetrics metrics = stepMetrics.get(stepId);
+        if (metrics == null) {
+            StepMetrics created = new StepMetrics(stepId);
+            metrics = stepMetrics.putIfAbsent(stepId, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Records the time spent in a method of a step.
+     */
+    public void recordHook(String stepId, Hook hook, long nanos) {
+        getStepMetrics(stepId).getLatency(hook).record(nanos);
+    }
+
+    /**
+     * Records the time spent on a step before leaving it.
+     */
+    public void recordDwell(String stepId, long nanos) {
+        getStepMetrics(stepId).getDwellTime().record(nanos);
+    }
+
+    /**
+     * Records the activation of a step.
+     */
+    public void recordTransition(String stepId) {
+        getStepMetrics(stepId).recordTransition();
+    }
+
+    /**
+     * Records a step refusing to be left.
+     */
+    public void recordRejection(String stepId) {
+        getStepMetrics(stepId).recordRejection();
+    }
+
+    public void recordCompleted() {
+        completed.increment();
+    }
+
+    public void recordCancelled() {
+        cancelled.increment();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.sum();
+    }
+
+    public String[] getStepIds() {
+        Set<String> ids = stepMetrics.keySet();
+        return ids.toArray(new String[ids.size()]);
+    }
+
+    public Map<String, Long> getTransitionCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (StepMetrics metrics : stepMetrics.values()) {
+            counts.put(metrics.getStepId(), metrics.getTransitionCount());
+        }
+        return counts;
+    }
+
+    public Map<String, Long> getRejectionCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (StepMetrics metrics : stepMetrics.values()) {
+            counts.put(metrics.getStepId(), metrics.getRejectionCount());
+        }
+        return counts;
+    }
+
+    public Map<String, Double> getMeanDwellTimeMillis() {
+        Map<String, Double> times = new TreeMap<String, Double>();
+        for (StepMetrics metrics : stepMetrics.values()) {
+            times.put(metrics.getStepId(), toMillis(metrics.getDwellTime()
+                    .getMeanNanos()));
+        }
+        return times;
+    }
+
+    public double getMeanLatencyMillis(String stepId, String hook) {
+        StepMetrics metrics = stepMetrics.get(stepId);
+        if (metrics == null) {
+            return 0;
+        }
+        return toMillis(metrics.getLatency(Hook.valueOf(hook)).getMeanNanos());
+    }
+
+    public double getLatencyPercentileMillis(String stepId, String hook,
+            double percentile) {
+        StepMetrics metrics = stepMetrics.get(stepId);
+        if (metrics == null) {
+            return 0;
+        }
+        return toMillis(metrics.getLatency(Hook.valueOf(hook))
+                .getPercentileNanos(percentile));
+    }
+
+    public void reset() {
+        for (StepMetrics metrics : stepMetrics.values()) {
+            metrics.reset();
+        }
+        completed.reset();
+        cancelled.reset();
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1000000d;
+    }
+
+}
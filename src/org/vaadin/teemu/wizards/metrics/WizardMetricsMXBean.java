@@ -0,0 +1,44 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link WizardMetrics}. Durations are reported in
+ * milliseconds.
+ */
+public interface WizardMetricsMXBean {
+
+    String getName();
+
+    long getCompletedCount();
+
+    long getCancelledCount();
+
+    String[] getStepIds();
+
+    Map<String, Long> getTransitionCounts();
+
+    Map<String, Long> getRejectionCounts();
+
+    Map<String, Double> getMeanDwellTimeMillis();
+
+    /**
+     * @param stepId
+     * @param hook
+     *            name of a {@link StepMetrics.Hook}.
+     */
+    double getMeanLatencyMillis(String stepId, String hook);
+
+    /**
+     * @param stepId
+     * @param hook
+     *            name of a {@link StepMetrics.Hook}.
+     * @param percentile
+     *            percentile between 0 and 100.
+     */
+    double getLatencyPercentileMillis(String stepId, String hook,
+            double percentile);
+
+    void reset();
+
+}
@@ -0,0 +1,527 @@
+package org.vaadin.teemu.wizards.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.vaadin.teemu.wizards.WizardState;
+import org.vaadin.teemu.wizards.WizardStateCodec;
+
+/**
+ * {@link WizardStateStore} persisting the states in append-only segment files
+ * in a local directory.
+ *
+ * <p>
+ * Every save or remove appends one record to the active segment and updates
+ * an in-memory index from keys to record locations, so a load is a single
+ * positional read. When the active segment grows past the maximum segment
+ * size a new one is started. Superseded records are reclaimed by compaction,
+ * which rewrites the live records into new segments and deletes the old ones.
+ * Compaction runs automatically when more than half of the stored bytes are
+ * garbage and can also be triggered with {@link #compact()}. The index is
+ * rebuilt by scanning the segments when the store is opened, discarding a
+ * torn record at the end of a segment.
+ * </p>
+ *
+ * <p>
+ * Loads can run concurrently with each other and with saves. Saves and
+ * removes are appended one at a time.
+ * </p>
+ */
+public class FileWizardStateStore implements WizardStateStore, Closeable {
+
+    /** Default maximum size of a segment file, 16 MiB. */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** Record header: body length and CRC32 of the body. */
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte STATE_RECORD = 1;
+    private static final byte TOMBSTONE_RECORD = 0;
+
+    /** Compaction is not considered before this many bytes are stored. */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Logger logger = Logger
+            .getLogger(FileWizardStateStore.class.getName());
+
+    private final File directory;
+    private final long maxSegmentSize;
+    private final boolean syncOnWrite;
+
+    private final ConcurrentMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+    /**
+     * Appends and loads hold the read lock, compaction and closing hold the
+     * write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by appendLock or the write lock
+    private final Object appendLock = new Object();
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private Segment activeSegment;
+    private long totalBytes;
+    private long liveBytes;
+    private boolean closed;
+
+    private static class Segment {
+        final long id;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        long size;
+
+        Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            size = channel.size();
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    private static class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+
+        Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Opens a store in the given directory with the default segment size and
+     * without forcing each write to disk.
+     *
+     * @param directory
+     *            directory holding the segment files, created if missing.
+     * @throws WizardStateStoreException
+     *             if the directory cannot be created or read.
+     */
+    public FileWizardStateStore(File directory) {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * Opens a store in the given directory.
+     *
+     * @param directory
+     *            directory holding the segment files, created if missing.
+     * @param maxSegmentSize
+     *            size in bytes after which a new segment file is started.
+     * @param syncOnWrite
+     *            {@code true} to force every write to disk before returning.
+     * @throws WizardStateStoreException
+     *             if the directory cannot be created or read.
+     */
+    public FileWizardStateStore(File directory, long maxSegmentSize,
+            boolean syncOnWrite) {
+        if (maxSegmentSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid maximum segment size "
+                    + maxSegmentSize);
+        }
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.syncOnWrite = syncOnWrite;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new WizardStateStoreException("Cannot create directory "
+                    + directory);
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new WizardStateStoreException("Cannot open wizard states in "
+                    + directory, e);
+        }
+    }
+
+    public void save(String key, WizardState state) {
+        append(key, WizardStateCodec.encode(state));
+    }
+
+    public void remove(String key) {
+        if (index.containsKey(key)) {
+            append(key, null);
+        }
+    }
+
+    public WizardState load(String key) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer record = read(location);
+            return WizardStateCodec.decode(parseState(record));
+        } catch (IOException e) {
+            throw new WizardStateStoreException("Cannot load wizard state "
+                    + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of stored states.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Rewrites the live records into new segments and deletes the old
+     * segments.
+     *
+     * @throws WizardStateStoreException
+     *             if compaction fails.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            doCompact();
+        } catch (IOException e) {
+            throw new WizardStateStoreException(
+                    "Cannot compact wizard states in " + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Wizard state store is closed.");
+        }
+    }
+
+    private void append(String key, byte[] state) {
+        byte[] record = createRecord(key, state);
+        boolean compactionNeeded;
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            synchronized (appendLock) {
+                Location location = write(record);
+                totalBytes += record.length;
+                Location previous;
+                if (state != null) {
+                    previous = index.put(key, location);
+                    liveBytes += record.length;
+                } else {
+                    previous = index.remove(key);
+                }
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                }
+                compactionNeeded = isCompactionNeeded();
+            }
+        } catch (IOException e) {
+            throw new WizardStateStoreException("Cannot store wizard state "
+                    + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (compactionNeeded) {
+            lock.writeLock().lock();
+            try {
+                // another writer may have compacted in the meantime
+                if (!closed && isCompactionNeeded()) {
+                    doCompact();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Compacting wizard states in "
+                        + directory + " failed", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean isCompactionNeeded() {
+        return totalBytes > MIN_COMPACTION_SIZE
+                && totalBytes - liveBytes > totalBytes
+                        * COMPACTION_GARBAGE_RATIO;
+    }
+
+    /**
+     * Appends the given record to the active segment, starting a new one if
+     * needed. Must be called with the appendLock or write lock held.
+     */
+    private Location write(byte[] record) throws IOException {
+        if (activeSegment.size > 0
+                && activeSegment.size + record.length > maxSegmentSize) {
+            activeSegment = openSegment(activeSegment.id + 1);
+        }
+        Segment segment = activeSegment;
+        long offset = segment.size;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += segment.channel.write(buffer, position);
+        }
+        if (syncOnWrite) {
+            segment.channel.force(false);
+        }
+        segment.size = position;
+        return new Location(segment, offset, record.length);
+    }
+
+    private ByteBuffer read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        long position = location.offset;
+        while (buffer.hasRemaining()) {
+            int read = location.segment.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment "
+                        + location.segment.file);
+            }
+            position += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private void doCompact() throws IOException {
+        List<Segment> oldSegments = new ArrayList<Segment>(segments);
+        activeSegment = openSegment(activeSegment.id + 1);
+
+        Map<String, Location> compacted = new HashMap<String, Location>();
+        long bytes = 0;
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            ByteBuffer record = read(entry.getValue());
+            Location location = write(record.array());
+            compacted.put(entry.getKey(), location);
+            bytes += location.length;
+        }
+        for (Segment segment : segments) {
+            if (!oldSegments.contains(segment)) {
+                segment.channel.force(false);
+            }
+        }
+
+        index.putAll(compacted);
+        totalBytes = bytes;
+        liveBytes = bytes;
+        for (Segment segment : oldSegments) {
+            segments.remove(segment);
+            segment.close();
+            if (!segment.file.delete()) {
+                logger.warning("Cannot delete compacted segment "
+                        + segment.file);
+            }
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Segment segment = new Segment(id, new File(directory, SEGMENT_PREFIX
+                + id + SEGMENT_SUFFIX));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return parseSegmentId(file) >= 0;
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                long id1 = parseSegmentId(file1);
+                long id2 = parseSegmentId(file2);
+                return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            Segment segment = openSegment(parseSegmentId(file));
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            openSegment(0);
+        }
+        activeSegment = segments.get(segments.size() - 1);
+
+        liveBytes = 0;
+        for (Location location : index.values()) {
+            liveBytes += location.length;
+        }
+    }
+
+    private void scan(Segment segment) throws IOException {
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset < segment.size) {
+            header.clear();
+            if (segment.channel.read(header, offset) < HEADER_SIZE) {
+                break;
+            }
+            header.flip();
+            int bodyLength = header.getInt();
+            int length = HEADER_SIZE + bodyLength;
+            if (bodyLength < 0 || offset + length > segment.size) {
+                break;
+            }
+            Location location = new Location(segment, offset, length);
+            ByteBuffer record = read(location);
+            if (!isValid(record)) {
+                break;
+            }
+            String key = parseKey(record);
+            if (record.get() == STATE_RECORD) {
+                index.put(key, location);
+            } else {
+                index.remove(key);
+            }
+            totalBytes += length;
+            offset += length;
+        }
+
+        if (offset < segment.size) {
+            logger.warning("Discarding " + (segment.size - offset)
+                    + " bytes of incomplete records at the end of "
+                    + segment.file);
+            segment.channel.truncate(offset);
+            segment.size = offset;
+        }
+    }
+
+    private static long parseSegmentId(File file) {
+        String name = file.getName();
+        if (!file.isFile() || !name.startsWith(SEGMENT_PREFIX)
+                || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a record for the given key and encoded state, or a tombstone if
+     * the state is {@code null}.
+     */
+    private static byte[] createRecord(String key, byte[] state) {
+        byte[] keyBytes = key.getBytes(UTF8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16
+                + keyBytes.length + (state == null ? 0 : state.length));
+        // reserve space for the header
+        body.write(new byte[HEADER_SIZE], 0, HEADER_SIZE);
+        int length = keyBytes.length;
+        while ((length & ~0x7f) != 0) {
+            body.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        body.write(length);
+        body.write(keyBytes, 0, keyBytes.length);
+        if (state == null) {
+            body.write(TOMBSTONE_RECORD);
+        } else {
+            body.write(STATE_RECORD);
+            body.write(state, 0, state.length);
+        }
+
+        byte[] record = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(record.length - HEADER_SIZE)
+                .putInt((int) crc.getValue());
+        return record;
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, record.limit() - HEADER_SIZE);
+        return record.getInt(4) == (int) crc.getValue();
+    }
+
+    /**
+     * Reads the key of the given record, leaving the buffer positioned at the
+     * record type.
+     */
+    private static String parseKey(ByteBuffer record) {
+        record.position(HEADER_SIZE);
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = record.get();
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        String key = new String(record.array(), record.position(), length,
+                UTF8);
+        record.position(record.position() + length);
+        return key;
+    }
+
+    private static byte[] parseState(ByteBuffer record) throws IOException {
+        parseKey(record);
+        if (record.get() != STATE_RECORD) {
+            throw new IOException("Not a state record");
+        }
+        byte[] state = new byte[record.remaining()];
+        record.get(state);
+        return state;
+    }
+
+}
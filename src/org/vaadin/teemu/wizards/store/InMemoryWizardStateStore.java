@@ -0,0 +1,35 @@
+package org.vaadin.teemu.wizards.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vaadin.teemu.wizards.WizardState;
+
+/**
+ * {@link WizardStateStore} keeping the states in memory. States survive
+ * across sessions but not across restarts of the application.
+ */
+public class InMemoryWizardStateStore implements WizardStateStore {
+
+    private final ConcurrentMap<String, WizardState> states = new ConcurrentHashMap<String, WizardState>();
+
+    public void save(String key, WizardState state) {
+        states.put(key, state);
+    }
+
+    public WizardState load(String key) {
+        return states.get(key);
+    }
+
+    public void remove(String key) {
+        states.remove(key);
+    }
+
+    /**
+     * Returns the number of stored states.
+     */
+    public int size() {
+        return states.size();
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.vaadin.teemu.wizards.store;
+
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardState;
+
+/**
+ * Storage for {@link WizardState} snapshots, allowing a user to resume a
+ * {@link Wizard} in a later session. Implementations must be safe for
+ * concurrent use from multiple sessions.
+ * 
+ * @see Wizard#setStateStore(WizardStateStore, String)
+ */
+public interface WizardStateStore {
+
+    /**
+     * Stores the given state with the given key, replacing any state
+     * previously stored with the same key.
+     * 
+     * @param key
+     *            key identifying the wizard, for example a user identifier.
+     * @param state
+     *            the state to store.
+     * @throws WizardStateStoreException
+     *             if storing the state fails.
+     */
+    public void save(String key, WizardState state);
+
+    /**
+     * Returns the state stored with the given key or {@code null} if there is
+     * no such state.
+     * 
+     * @param key
+     *            key identifying the wizard.
+     * @return the stored state or {@code null}.
+     * @throws WizardStateStoreException
+     *             if reading the state fails.
+     */
+    public WizardState load(String key);
+
+    /**
+     * Removes the state stored with the given key, if any.
+     * 
+     * @param key
+     *            key identifying the wizard.
+     * @throws WizardStateStoreException
+     *             if removing the state fails.
+     */
+    public void remove(String key);
+
+}
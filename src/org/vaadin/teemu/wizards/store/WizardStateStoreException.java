@@ -0,0 +1,17 @@
+package org.vaadin.teemu.wizards.store;
+
+/**
+ * Thrown when a {@link WizardStateStore} fails to access its storage.
+ */
+@SuppressWarnings("serial")
+public class WizardStateStoreException extends RuntimeException {
+
+    public WizardStateStoreException(String message) {
+        super(message);
+    }
+
+    public WizardStateStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
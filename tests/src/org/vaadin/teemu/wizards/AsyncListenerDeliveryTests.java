@@ -0,0 +1,60 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.vaadin.teemu.wizards.AsyncListenerDelivery.BackpressurePolicy;
+
+public class AsyncListenerDeliveryTests {
+
+    private static Runnable append(final List<Integer> delivered,
+            final int value) {
+        return new Runnable() {
+            public void run() {
+                delivered.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void enqueue_dropOldest_newestDeliveredInOrder() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncListenerDelivery delivery = new AsyncListenerDelivery(executor,
+                3, BackpressurePolicy.DROP_OLDEST);
+        List<Integer> delivered = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            delivery.enqueue(append(delivered, i));
+        }
+        Assert.assertEquals(3, delivery.getQueueDepth());
+
+        executor.runAll();
+
+        Assert.assertEquals(3, delivered.size());
+        Assert.assertEquals(Integer.valueOf(2), delivered.get(0));
+        Assert.assertEquals(Integer.valueOf(4), delivered.get(2));
+        Assert.assertEquals(2, delivery.getDroppedCount());
+        Assert.assertEquals(3, delivery.getDeliveredCount());
+        Assert.assertEquals(0, delivery.getQueueDepth());
+    }
+
+    @Test
+    public void enqueue_dropNewest_oldestDelivered() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncListenerDelivery delivery = new AsyncListenerDelivery(executor,
+                2, BackpressurePolicy.DROP_NEWEST);
+        List<Integer> delivered = new ArrayList<Integer>();
+        for (int i = 0; i < 4; i++) {
+            delivery.enqueue(append(delivered, i));
+        }
+        executor.runAll();
+
+        Assert.assertEquals(2, delivered.size());
+        Assert.assertEquals(Integer.valueOf(0), delivered.get(0));
+        Assert.assertEquals(Integer.valueOf(1), delivered.get(1));
+        Assert.assertEquals(2, delivery.getDroppedCount());
+    }
+
+}
@@ -0,0 +1,196 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletionFailedEvent;
+import org.vaadin.teemu.wizards.event.WizardCompletionFailedListener;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+public class CompletionPipelineTests {
+
+    private Wizard createWizard(ManualExecutor executor) {
+        WizardStep step = Mockito.mock(WizardStep.class);
+        Mockito.when(step.onAdvance()).thenReturn(true);
+        Wizard wizard = new Wizard();
+        wizard.setCompletionExecutor(executor);
+        wizard.addStep(step);
+        return wizard;
+    }
+
+    @Test
+    public void finish_clickedTwice_stagesRunOnceAndCompletedOnce()
+            throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        WizardCompletionStage stage = Mockito.mock(WizardCompletionStage.class);
+        wizard.addCompletionStage(stage);
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.finish();
+        wizard.finish();
+
+        Assert.assertTrue(wizard.isCompleting());
+        Assert.assertFalse(wizard.getFinishButton().isEnabled());
+        Mockito.verify(listener, Mockito.never()).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+
+        executor.runAll();
+        wizard.finish();
+        executor.runAll();
+
+        Assert.assertFalse(wizard.isCompleting());
+        Mockito.verify(stage, Mockito.times(1)).complete(
+                Mockito.any(WizardContext.Snapshot.class));
+        Mockito.verify(listener, Mockito.times(1)).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+    }
+
+    @Test
+    public void finish_stageFails_failedEventAndNotCompleted()
+            throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        WizardCompletionStage failing = Mockito
+                .mock(WizardCompletionStage.class);
+        Mockito.doThrow(new IllegalStateException("database down"))
+                .when(failing).complete(
+                        Mockito.any(WizardContext.Snapshot.class));
+        WizardCompletionStage next = Mockito.mock(WizardCompletionStage.class);
+        wizard.addCompletionStage(failing);
+        wizard.addCompletionStage(next);
+        WizardCompletionFailedListener failedListener = Mockito
+                .mock(WizardCompletionFailedListener.class);
+        wizard.addCompletionFailedListener(failedListener);
+
+        wizard.finish();
+        executor.runAll();
+        // without a UI the outcome is reported when the Wizard is used next
+        wizard.attach();
+
+        Assert.assertFalse(wizard.isCompleting());
+        Assert.assertTrue(wizard.getFinishButton().isEnabled());
+        Mockito.verify(failedListener).wizardCompletionFailed(
+                Mockito.any(WizardCompletionFailedEvent.class));
+        Mockito.verify(next, Mockito.never()).complete(
+                Mockito.any(WizardContext.Snapshot.class));
+    }
+
+    @Test
+    public void finish_noUI_completedOnlyWhenNavigating() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        wizard.addCompletionStage(Mockito.mock(WizardCompletionStage.class));
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.finish();
+        executor.runAll();
+        wizard.setLinkMode(Wizard.LinkMode.ALL);
+
+        Mockito.verify(listener, Mockito.never()).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+
+        wizard.finish();
+
+        Mockito.verify(listener, Mockito.times(1)).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+    }
+
+    @Test
+    public void finish_noStagesClickedTwice_completedOnce() {
+        Wizard wizard = createWizard(new ManualExecutor());
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.finish();
+        wizard.finish();
+
+        Assert.assertFalse(wizard.getFinishButton().isEnabled());
+        Mockito.verify(listener, Mockito.times(1)).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+    }
+
+    @Test
+    public void finish_uiDetachedBeforeReport_completedOnceOnAttach()
+            throws Exception {
+        @SuppressWarnings("serial")
+        final UI detachedUI = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+
+            @Override
+            public Future<Void> access(Runnable command) {
+                throw new UIDetachedException();
+            }
+        };
+        ManualExecutor executor = new ManualExecutor();
+        WizardStep step = Mockito.mock(WizardStep.class);
+        Mockito.when(step.onAdvance()).thenReturn(true);
+        @SuppressWarnings("serial")
+        Wizard wizard = new Wizard() {
+            @Override
+            public UI getUI() {
+                return detachedUI;
+            }
+        };
+        wizard.setCompletionExecutor(executor);
+        wizard.addStep(step);
+        WizardCompletionStage stage = Mockito.mock(WizardCompletionStage.class);
+        wizard.addCompletionStage(stage);
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.finish();
+        executor.runAll();
+
+        Assert.assertFalse(wizard.isCompleting());
+        wizard.attach();
+        wizard.finish();
+        executor.runAll();
+
+        Assert.assertFalse(wizard.getFinishButton().isEnabled());
+        Mockito.verify(stage, Mockito.times(1)).complete(
+                Mockito.any(WizardContext.Snapshot.class));
+        Mockito.verify(listener, Mockito.times(1)).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+    }
+
+    @Test
+    public void finish_rejectedByExecutor_notCompleting() {
+        Wizard wizard = createWizard(null);
+        wizard.setCompletionExecutor(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        wizard.addCompletionStage(Mockito.mock(WizardCompletionStage.class));
+
+        try {
+            wizard.finish();
+            Assert.fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        Assert.assertFalse(wizard.isCompleting());
+        Assert.assertTrue(wizard.getFinishButton().isEnabled());
+    }
+
+}
@@ -0,0 +1,23 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running the tasks only when asked to.
+ */
+class ManualExecutor implements Executor {
+
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    public void execute(Runnable command) {
+        tasks.add(command);
+    }
+
+    void runAll() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+import org.vaadin.teemu.wizards.event.WizardCompletedEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+
+public class ParallelValidationTests {
+
+    /**
+     * Executor service running a task only when its result is asked for, so
+     * that the results never asked for can be seen to be cancelled.
+     */
+    private static class OnDemandExecutorService extends
+            AbstractExecutorService {
+
+        private final List<FutureTask<?>> tasks = new ArrayList<FutureTask<?>>();
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            FutureTask<T> task = new FutureTask<T>(callable) {
+                @Override
+                public T get() throws InterruptedException,
+                        ExecutionException {
+                    run();
+                    return super.get();
+                }
+            };
+            tasks.add(task);
+            return task;
+        }
+
+        public void execute(Runnable command) {
+            // run on demand in get()
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private Wizard createWizard(OnDemandExecutorService executor,
+            boolean... allowed) {
+        Wizard wizard = new Wizard();
+        wizard.setParallelValidationExecutor(executor);
+        for (int i = 0; i < allowed.length; i++) {
+            WizardStep step = Mockito.mock(ThreadSafeWizardStep.class);
+            Mockito.when(step.onAdvance()).thenReturn(allowed[i]);
+            wizard.addStep(step, "step-" + i);
+        }
+        return wizard;
+    }
+
+    @Test
+    public void tryToActivateStep_laterStepsRefuse_firstRefusingActivated() {
+        OnDemandExecutorService executor = new OnDemandExecutorService();
+        Wizard wizard = createWizard(executor, true, true, false, false, true);
+
+        wizard.tryToActivateStep("step-4");
+
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(2)));
+        Assert.assertEquals(4, executor.tasks.size());
+    }
+
+    @Test
+    public void tryToActivateStep_stepRefuses_unusedResultsCancelled() {
+        OnDemandExecutorService executor = new OnDemandExecutorService();
+        Wizard wizard = createWizard(executor, true, false, true, true, true);
+
+        wizard.tryToActivateStep("step-4");
+
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(1)));
+        Assert.assertFalse(executor.tasks.get(0).isCancelled());
+        Assert.assertFalse(executor.tasks.get(1).isCancelled());
+        Assert.assertTrue(executor.tasks.get(2).isCancelled());
+        Assert.assertTrue(executor.tasks.get(3).isCancelled());
+        Mockito.verify(wizard.getSteps().get(2), Mockito.never()).onAdvance();
+        Mockito.verify(wizard.getSteps().get(3), Mockito.never()).onAdvance();
+    }
+
+    @Test
+    public void finish_linkModeAll_allStepsValidatedOnceAndCompleted() {
+        OnDemandExecutorService executor = new OnDemandExecutorService();
+        Wizard wizard = createWizard(executor, true, true, true, true);
+        wizard.setLinkMode(LinkMode.ALL);
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.finish();
+
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(3)));
+        Assert.assertEquals(3, executor.tasks.size());
+        for (WizardStep step : wizard.getSteps()) {
+            Mockito.verify(step).onAdvance();
+        }
+        Mockito.verify(listener).wizardCompleted(
+                Mockito.any(WizardCompletedEvent.class));
+    }
+
+}
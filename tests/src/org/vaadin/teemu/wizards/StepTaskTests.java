@@ -0,0 +1,191 @@
+package org.vaadin.teemu.wizards;
+
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.StepTask.NavigationPolicy;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+public class StepTaskTests {
+
+    private static class ImportTask extends StepTask<Integer> {
+
+        private Integer doneResult;
+        private boolean cancelledCalled;
+
+        @Override
+        protected Integer execute() {
+            for (int i = 1; i <= 10; i++) {
+                setProgress(i / 10f);
+            }
+            return 42;
+        }
+
+        @Override
+        protected void done(Integer result) {
+            doneResult = result;
+        }
+
+        @Override
+        protected void cancelled() {
+            cancelledCalled = true;
+        }
+    }
+
+    private static class FailingTask extends StepTask<Void> {
+
+        private Exception failure;
+
+        @Override
+        protected Void execute() throws Exception {
+            for (int i = 1; i <= 5; i++) {
+                setProgress(i / 10f);
+            }
+            throw new Exception("import failed");
+        }
+
+        @Override
+        protected void failed(Exception exception) {
+            failure = exception;
+        }
+    }
+
+    private static class SelfCancellingTask extends StepTask<Void> {
+
+        @Override
+        protected Void execute() {
+            cancel();
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class DetachedUI extends UI {
+
+        @Override
+        protected void init(VaadinRequest request) {
+        }
+
+        @Override
+        public Future<Void> access(Runnable command) {
+            throw new UIDetachedException();
+        }
+    }
+
+    private Wizard createWizard(ManualExecutor executor) {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(true);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Mockito.when(step2.onBack()).thenReturn(true);
+        Wizard wizard = new Wizard();
+        wizard.setStepTaskExecutor(executor);
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        return wizard;
+    }
+
+    @Test
+    public void next_blockingTaskRunning_blockedUntilFinished() {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        WizardStep first = wizard.getSteps().get(0);
+        ProgressBar indicator = new ProgressBar();
+        ImportTask task = new ImportTask();
+
+        wizard.startStepTask(first, task, indicator,
+                NavigationPolicy.BLOCK_ADVANCE);
+        wizard.next();
+
+        Assert.assertTrue(wizard.isActive(first));
+        Assert.assertFalse(wizard.getNextButton().isEnabled());
+
+        executor.runAll();
+        wizard.next();
+
+        Assert.assertEquals(Integer.valueOf(42), task.doneResult);
+        Assert.assertEquals(Float.valueOf(1f), indicator.getValue());
+        Assert.assertNull(wizard.getStepTask(first));
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(1)));
+    }
+
+    @Test
+    public void next_cancelOnLeave_taskCancelled() {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        ImportTask task = new ImportTask();
+
+        wizard.startStepTask(wizard.getSteps().get(0), task, null,
+                NavigationPolicy.CANCEL_ON_LEAVE);
+        wizard.next();
+        executor.runAll();
+
+        Assert.assertTrue(task.isCancelled());
+        Assert.assertTrue(task.cancelledCalled);
+        Assert.assertNull(task.doneResult);
+    }
+
+    @Test
+    public void cancel_whileRunning_interruptNotLeakedToThread() {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        SelfCancellingTask task = new SelfCancellingTask();
+
+        wizard.startStepTask(wizard.getSteps().get(0), task, null,
+                NavigationPolicy.ALLOW);
+        executor.runAll();
+
+        Assert.assertTrue(task.isCancelled());
+        // the executor ran the task on this thread
+        Assert.assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void setProgress_throttledUpdateBeforeFailure_latestProgressShown() {
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createWizard(executor);
+        wizard.setTaskProgressInterval(60000);
+        ProgressBar indicator = new ProgressBar();
+        FailingTask task = new FailingTask();
+
+        wizard.startStepTask(wizard.getSteps().get(0), task, indicator,
+                NavigationPolicy.ALLOW);
+        executor.runAll();
+
+        Assert.assertNotNull(task.failure);
+        Assert.assertEquals(Float.valueOf(0.5f), indicator.getValue());
+    }
+
+    @Test
+    public void runTask_uiDetached_taskFinishedAndStepReleased() {
+        ManualExecutor executor = new ManualExecutor();
+        WizardStep step = Mockito.mock(WizardStep.class);
+        final UI detachedUI = new DetachedUI();
+        @SuppressWarnings("serial")
+        Wizard wizard = new Wizard() {
+            @Override
+            public UI getUI() {
+                return detachedUI;
+            }
+        };
+        wizard.setStepTaskExecutor(executor);
+        wizard.addStep(step, "first");
+        ImportTask task = new ImportTask();
+
+        wizard.startStepTask(step, task, null, NavigationPolicy.BLOCK_ALL);
+        executor.runAll();
+
+        Assert.assertTrue(task.isFinished());
+        Assert.assertNull(task.doneResult);
+        Assert.assertNull(wizard.getStepTask(step));
+        wizard.startStepTask(step, new ImportTask(), null,
+                NavigationPolicy.ALLOW);
+    }
+
+}
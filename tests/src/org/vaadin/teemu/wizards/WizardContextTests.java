@@ -0,0 +1,91 @@
+package org.vaadin.teemu.wizards;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class WizardContextTests {
+
+    private static final ContextKey<String> NAME = ContextKey.of("name",
+            String.class);
+
+    @Test
+    public void put_manyKeys_snapshotsUnchanged() {
+        WizardContext context = new WizardContext();
+        context.setUndoLimit(0);
+        for (int i = 0; i < 5000; i++) {
+            context.put(ContextKey.of("key" + i, Integer.class), i);
+        }
+        WizardContext.Snapshot snapshot = context.snapshot();
+        for (int i = 0; i < 5000; i += 2) {
+            context.remove(ContextKey.of("key" + i, Integer.class));
+        }
+
+        Assert.assertEquals(2500, context.size());
+        Assert.assertEquals(5000, snapshot.size());
+        Assert.assertNull(context.get(ContextKey.of("key10", Integer.class)));
+        Assert.assertEquals(Integer.valueOf(11),
+                context.get(ContextKey.of("key11", Integer.class)));
+        Assert.assertEquals(Integer.valueOf(10),
+                snapshot.get(ContextKey.of("key10", Integer.class)));
+        Assert.assertEquals(2500, context.getKeys().size());
+    }
+
+    @Test
+    public void put_collidingHashCodes_bothValuesKept() {
+        // "Aa" and "BB" have the same hash code
+        ContextKey<String> aa = ContextKey.of("Aa", String.class);
+        ContextKey<String> bb = ContextKey.of("BB", String.class);
+        WizardContext context = new WizardContext();
+        context.put(aa, "aa");
+        context.put(bb, "bb");
+        Assert.assertEquals("aa", context.get(aa));
+        Assert.assertEquals("bb", context.get(bb));
+
+        context.remove(aa);
+        Assert.assertNull(context.get(aa));
+        Assert.assertEquals("bb", context.get(bb));
+        Assert.assertEquals(1, context.size());
+    }
+
+    @Test
+    public void undo_changes_previousValuesRestored() {
+        WizardContext context = new WizardContext();
+        context.put(NAME, "first");
+        context.put(NAME, "second");
+
+        Assert.assertTrue(context.undo());
+        Assert.assertEquals("first", context.get(NAME));
+        Assert.assertTrue(context.redo());
+        Assert.assertEquals("second", context.get(NAME));
+        context.undo();
+        context.undo();
+        Assert.assertNull(context.get(NAME));
+        Assert.assertFalse(context.undo());
+    }
+
+    @Test
+    public void back_contextRestoredOnBack_stateOfStepEntryRestored() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(true);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Mockito.when(step2.onBack()).thenReturn(true);
+        Wizard wizard = new Wizard();
+        wizard.setContextRestoredOnBack(true);
+        wizard.addStep(step1);
+        wizard.addStep(step2);
+
+        wizard.getContext().put(NAME, "entered in first");
+        wizard.next();
+        wizard.getContext().put(NAME, "changed in second");
+        wizard.back();
+
+        Assert.assertNull(wizard.getContext().get(NAME));
+        Assert.assertEquals("entered in first",
+                wizard.getContextSnapshot(step2).get(NAME));
+        wizard.getContext().undo();
+        Assert.assertEquals("changed in second", wizard.getContext().get(NAME));
+    }
+
+}
@@ -0,0 +1,314 @@
+package org.vaadin.teemu.wizards;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.client.ui.ProgressBarLinkMode;
+import org.vaadin.teemu.wizards.client.ui.StepDelta;
+import org.vaadin.teemu.wizards.client.ui.StepFlags;
+import org.vaadin.teemu.wizards.client.ui.WizardProgressBarClientRpc;
+import org.vaadin.teemu.wizards.client.ui.WizardProgressBarServerRpc;
+import org.vaadin.teemu.wizards.client.ui.WizardProgressBarState;
+
+import com.vaadin.server.ClientMethodInvocation;
+import com.vaadin.server.JsonCodec;
+
+public class WizardProgressBarTests {
+
+    private Wizard createWizard(int stepCount) {
+        Wizard wizard = new Wizard();
+        for (int i = 0; i < stepCount; i++) {
+            WizardStep step = Mockito.mock(VersionedWizardStep.class);
+            Mockito.when(step.getCaption()).thenReturn("Step " + i);
+            Mockito.when(step.onAdvance()).thenReturn(true);
+            Mockito.when(step.onBack()).thenReturn(true);
+            wizard.addStep(step, "step-" + i);
+        }
+        return wizard;
+    }
+
+    private ClientMethodInvocation respond(WizardProgressBar progressBar,
+            boolean initial) {
+        progressBar.beforeClientResponse(initial);
+        List<ClientMethodInvocation> calls = progressBar
+                .retrievePendingRpcCalls();
+        Assert.assertTrue(calls.size() <= 1);
+        return calls.isEmpty() ? null : calls.get(0);
+    }
+
+    /** Returns the handler the client side calls are delivered to. */
+    private WizardProgressBarServerRpc serverRpc(
+            WizardProgressBar progressBar) {
+        return (WizardProgressBarServerRpc) progressBar.getRpcManager(
+                WizardProgressBarServerRpc.class.getName()).getImplementation();
+    }
+
+    @Test
+    public void beforeClientResponse_initial_allCaptionsSent() {
+        Wizard wizard = createWizard(100);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+
+        ClientMethodInvocation call = respond(progressBar, true);
+
+        Assert.assertEquals("setSteps", call.getMethodName());
+        List<?> captions = (List<?>) call.getParameters()[1];
+        Assert.assertEquals(100, captions.size());
+        Assert.assertEquals("Step 0", captions.get(0));
+        Assert.assertEquals(0, progressBar.getState().currentIndex);
+        Assert.assertEquals(ProgressBarLinkMode.NONE,
+                progressBar.getState().linkMode);
+    }
+
+    @Test
+    public void beforeClientResponse_next_onlyIndicesChanged() {
+        Wizard wizard = createWizard(100);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        respond(progressBar, true);
+
+        wizard.next();
+
+        Assert.assertNull(respond(progressBar, false));
+        WizardProgressBarState state = progressBar.getState();
+        Assert.assertEquals(1, state.currentIndex);
+        Assert.assertEquals(1, state.completedUpTo);
+        Assert.assertEquals("", state.notCompleted);
+    }
+
+    @Test
+    public void beforeClientResponse_staleStep_flaggedNotCompleted() {
+        Wizard wizard = createWizard(10);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        wizard.setStepDependencies("step-5", "step-2");
+        wizard.tryToActivateStep("step-8");
+
+        VersionedWizardStep upstream = (VersionedWizardStep) wizard
+                .getSteps().get(2);
+        Mockito.when(upstream.getDataVersion()).thenReturn(2L);
+        respond(progressBar, false);
+
+        WizardProgressBarState state = progressBar.getState();
+        Assert.assertEquals(8, state.completedUpTo);
+        Assert.assertTrue(StepFlags.isSet(state.notCompleted, 5));
+        Assert.assertFalse(StepFlags.isSet(state.notCompleted, 4));
+    }
+
+    @Test
+    public void beforeClientResponse_stepAdded_allCaptionsSent() {
+        Wizard wizard = createWizard(10);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        respond(progressBar, true);
+
+        wizard.addStep(Mockito.mock(WizardStep.class), "added");
+        ClientMethodInvocation call = respond(progressBar, false);
+
+        Assert.assertEquals("setSteps", call.getMethodName());
+        Assert.assertEquals(11, ((List<?>) call.getParameters()[1]).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refreshSteps_captionChanged_captionSent() {
+        Wizard wizard = createWizard(10);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        respond(progressBar, true);
+
+        WizardStep step = wizard.getSteps().get(7);
+        Mockito.when(step.getCaption()).thenReturn("Renamed");
+        progressBar.refreshSteps();
+        ClientMethodInvocation call = respond(progressBar, false);
+
+        Assert.assertEquals("updateCaptions", call.getMethodName());
+        List<StepDelta> deltas = (List<StepDelta>) call.getParameters()[0];
+        Assert.assertEquals(1, deltas.size());
+        Assert.assertEquals(7, deltas.get(0).index);
+        Assert.assertEquals("Renamed", deltas.get(0).caption);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void beforeClientResponse_leftAndEnteredStepsRenamed_captionsSent() {
+        Wizard wizard = createWizard(10);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        respond(progressBar, true);
+
+        Mockito.when(wizard.getSteps().get(0).getCaption()).thenReturn("Done");
+        Mockito.when(wizard.getSteps().get(1).getCaption()).thenReturn(
+                "Editing");
+        Mockito.when(wizard.getSteps().get(5).getCaption()).thenReturn(
+                "Not compared");
+        wizard.next();
+        ClientMethodInvocation call = respond(progressBar, false);
+
+        Assert.assertEquals("updateCaptions", call.getMethodName());
+        List<StepDelta> deltas = (List<StepDelta>) call.getParameters()[0];
+        Assert.assertEquals(2, deltas.size());
+        Assert.assertEquals("Done", deltas.get(0).caption);
+        Assert.assertEquals(1, deltas.get(1).index);
+        Assert.assertEquals("Editing", deltas.get(1).caption);
+        Mockito.verify(wizard.getSteps().get(5), Mockito.times(1))
+                .getCaption();
+        Assert.assertNull(respond(progressBar, false));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refreshSteps_otherStepRenamed_onlyThatCaptionSent() {
+        Wizard wizard = createWizard(10);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        respond(progressBar, true);
+
+        WizardStep step = wizard.getSteps().get(5);
+        Mockito.when(step.getCaption()).thenReturn("Renamed");
+        progressBar.refreshSteps(step);
+        ClientMethodInvocation call = respond(progressBar, false);
+
+        Assert.assertEquals("updateCaptions", call.getMethodName());
+        List<StepDelta> deltas = (List<StepDelta>) call.getParameters()[0];
+        Assert.assertEquals(1, deltas.size());
+        Assert.assertEquals(5, deltas.get(0).index);
+        Assert.assertEquals("Renamed", deltas.get(0).caption);
+        Mockito.verify(wizard.getSteps().get(7), Mockito.times(1))
+                .getCaption();
+        Assert.assertNull(respond(progressBar, false));
+    }
+
+    @Test
+    public void progressBarItemClicked_index_stepActivated() {
+        Wizard wizard = createWizard(10);
+        wizard.setLinkMode(Wizard.LinkMode.ALL);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        int revision = (Integer) respond(progressBar, true).getParameters()[0];
+
+        serverRpc(progressBar).progressBarItemClicked(revision, 4);
+        serverRpc(progressBar).progressBarItemClicked(revision, 10);
+
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(4)));
+    }
+
+    @Test
+    public void progressBarItemClicked_stepsChangedSinceSent_clickIgnored() {
+        Wizard wizard = createWizard(10);
+        wizard.setLinkMode(Wizard.LinkMode.ALL);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+        int revision = (Integer) respond(progressBar, true).getParameters()[0];
+
+        wizard.removeStep("step-3");
+        serverRpc(progressBar).progressBarItemClicked(revision, 4);
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(0)));
+
+        respond(progressBar, false);
+        serverRpc(progressBar).progressBarItemClicked(revision, 4);
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(0)));
+    }
+
+    @Test
+    public void setVisibleStepCount_count_sentInState() {
+        Wizard wizard = createWizard(100);
+        WizardProgressBar progressBar = (WizardProgressBar) wizard
+                .getProgressBar();
+
+        progressBar.setVisibleStepCount(7);
+
+        Assert.assertEquals(7, progressBar.getVisibleStepCount());
+        Assert.assertEquals(7, progressBar.getState().visibleStepCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setVisibleStepCount_negative_exceptionThrown() {
+        Wizard wizard = createWizard(10);
+        ((WizardProgressBar) wizard.getProgressBar()).setVisibleStepCount(-1);
+    }
+
+    @Test
+    public void stepFlags_encoded_sameIndicesSet() {
+        boolean[] flags = new boolean[11];
+        flags[0] = true;
+        flags[5] = true;
+        flags[6] = true;
+
+        String encoded = StepFlags.encode(flags);
+
+        Assert.assertEquals("16", encoded);
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(i < flags.length && flags[i],
+                    StepFlags.isSet(encoded, i));
+        }
+        Assert.assertEquals("", StepFlags.encode(new boolean[8]));
+    }
+
+    @Test
+    public void payloadSize_navigation_independentOfStepCount()
+            throws Exception {
+        int[] stepCounts = { 10, 100, 1000 };
+        int[] initialSizes = new int[stepCounts.length];
+        int[] navigationSizes = new int[stepCounts.length];
+        for (int i = 0; i < stepCounts.length; i++) {
+            Wizard wizard = createWizard(stepCounts[i]);
+            WizardProgressBar progressBar = (WizardProgressBar) wizard
+                    .getProgressBar();
+            initialSizes[i] = payloadSize(progressBar, true);
+
+            wizard.tryToActivateStep("step-" + (stepCounts[i] / 2));
+            navigationSizes[i] = payloadSize(progressBar, false);
+        }
+
+        // a quoted caption per step when attached
+        Assert.assertTrue(initialSizes[2] - initialSizes[0] > 3 * (stepCounts[2]
+                - stepCounts[0]));
+        // only the digits of the indices grow on navigation
+        Assert.assertTrue(navigationSizes[2] - navigationSizes[0] <= 4);
+        Assert.assertTrue(navigationSizes[2] < 1000);
+    }
+
+    /**
+     * Returns the length of the shared state and the client RPC calls of the
+     * response encoded as JSON like they are sent to the client.
+     */
+    private int payloadSize(WizardProgressBar progressBar, boolean initial)
+            throws Exception {
+        progressBar.beforeClientResponse(initial);
+        int size = encodedLength(progressBar.getState(),
+                WizardProgressBarState.class);
+        for (ClientMethodInvocation call : progressBar
+                .retrievePendingRpcCalls()) {
+            Type[] types = getClientRpcMethod(call.getMethodName())
+                    .getGenericParameterTypes();
+            size += call.getMethodName().length();
+            for (int i = 0; i < types.length; i++) {
+                size += encodedLength(call.getParameters()[i], types[i]);
+            }
+        }
+        return size;
+    }
+
+    private static int encodedLength(Object value, Type type)
+            throws Exception {
+        return String.valueOf(
+                JsonCodec.encode(value, null, type, null).getEncodedValue())
+                .length();
+    }
+
+    private static Method getClientRpcMethod(String name) {
+        for (Method method : WizardProgressBarClientRpc.class.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("No client RPC method " + name);
+    }
+
+}
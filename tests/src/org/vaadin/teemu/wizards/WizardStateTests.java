@@ -0,0 +1,329 @@
+package org.vaadin.teemu.wizards;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepActivationEvent;
+import org.vaadin.teemu.wizards.store.WizardStateStore;
+import org.vaadin.teemu.wizards.store.WizardStateStoreException;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.UI;
+
+public class WizardStateTests {
+
+    @SuppressWarnings("serial")
+    private static class TestStep implements WizardStep, Serializable {
+
+        private final Label content = new Label("Content");
+
+        public String getCaption() {
+            return "Step";
+        }
+
+        public Component getContent() {
+            return content;
+        }
+
+        public boolean onAdvance() {
+            return true;
+        }
+
+        public boolean onBack() {
+            return true;
+        }
+
+        public void onActivate() {
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class AsyncTestStep extends TestStep implements
+            AsyncWizardStep {
+
+        public Future<Boolean> onAdvanceAsync() {
+            return new FutureTask<Boolean>(new Runnable() {
+                public void run() {
+                }
+            }, Boolean.TRUE);
+        }
+
+        public Future<Boolean> onBackAsync() {
+            return onAdvanceAsync();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class TestCompletionStage implements
+            WizardCompletionStage, Serializable {
+
+        public void complete(WizardContext.Snapshot data) {
+        }
+    }
+
+    /**
+     * Wizard in a UI that is not serialized with it.
+     */
+    @SuppressWarnings("serial")
+    private static class UIWizard extends Wizard {
+
+        private transient UI ui;
+
+        UIWizard() {
+            ui = new UI() {
+                @Override
+                protected void init(VaadinRequest request) {
+                }
+            };
+        }
+
+        @Override
+        public UI getUI() {
+            return ui;
+        }
+    }
+
+    private static Wizard createWizard(int stepCount) {
+        Wizard wizard = new Wizard();
+        for (int i = 0; i < stepCount; i++) {
+            wizard.addStep(new TestStep());
+        }
+        return wizard;
+    }
+
+    @Test
+    public void restoreState_otherWizard_sameStepActive() {
+        Wizard wizard = createWizard(5);
+        wizard.setLinkMode(LinkMode.PREVIOUS);
+        wizard.next();
+        wizard.next();
+
+        Wizard restored = createWizard(5);
+        restored.restoreState(WizardStateCodec.decode(WizardStateCodec
+                .encode(wizard.getWizardState(), true)));
+
+        Assert.assertEquals(wizard.getWizardState(),
+                restored.getWizardState());
+        Assert.assertTrue(restored.isActive(restored.getSteps().get(2)));
+    }
+
+    @Test
+    public void restoreState_notAttached_uriFragmentEnabledAndSavedOnce() {
+        Wizard wizard = createWizard(5);
+        wizard.next();
+        wizard.next();
+        wizard.back();
+        WizardState state = wizard.getWizardState();
+        WizardState withFragment = new WizardState(state.getStepIds(),
+                state.getCurrentIndex(), state.getLastCompletedIndex(),
+                state.getLinkMode(), true);
+
+        Wizard restored = createWizard(5);
+        WizardStateStore store = Mockito.mock(WizardStateStore.class);
+        ManualExecutor executor = new ManualExecutor();
+        restored.setStateStore(store, "key");
+        restored.setStateStoreExecutor(executor);
+        restored.restoreState(withFragment);
+        executor.runAll();
+
+        Assert.assertTrue(restored.isUriFragmentEnabled());
+        ArgumentCaptor<WizardState> saved = ArgumentCaptor
+                .forClass(WizardState.class);
+        Mockito.verify(store).save(Mockito.eq("key"), saved.capture());
+        Assert.assertEquals(withFragment, saved.getValue());
+    }
+
+    @Test
+    public void next_severalStepsBeforeWrite_latestStateSavedOnce() {
+        Wizard wizard = createWizard(4);
+        WizardStateStore store = Mockito.mock(WizardStateStore.class);
+        ManualExecutor executor = new ManualExecutor();
+        wizard.setStateStore(store, "key");
+        wizard.setStateStoreExecutor(executor);
+
+        wizard.next();
+        wizard.next();
+        wizard.next();
+        executor.runAll();
+
+        Mockito.verify(store, Mockito.times(1)).save("key",
+                wizard.getWizardState());
+    }
+
+    @Test
+    public void next_storeFails_stepActivatedAndListenersNotified() {
+        Wizard wizard = createWizard(3);
+        WizardStateStore store = Mockito.mock(WizardStateStore.class);
+        Mockito.doThrow(new WizardStateStoreException("disk full"))
+                .when(store).save(Mockito.anyString(),
+                        Mockito.any(WizardState.class));
+        ManualExecutor executor = new ManualExecutor();
+        wizard.setStateStore(store, "key");
+        wizard.setStateStoreExecutor(executor);
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+
+        wizard.next();
+        executor.runAll();
+        wizard.next();
+        executor.runAll();
+
+        Assert.assertTrue(wizard.isActive(wizard.getSteps().get(2)));
+        Mockito.verify(listener, Mockito.times(2)).activeStepChanged(
+                Mockito.any(WizardStepActivationEvent.class));
+        Mockito.verify(store, Mockito.times(2)).save(Mockito.eq("key"),
+                Mockito.any(WizardState.class));
+    }
+
+    @Test
+    public void serialize_executorsSet_executorsNotSerialized()
+            throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Wizard wizard = createWizard(3);
+            wizard.setValidationExecutor(executor);
+            wizard.setParallelValidationExecutor(executor);
+            wizard.next();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(wizard);
+            out.close();
+            Wizard restored = (Wizard) new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))
+                    .readObject();
+
+            Assert.assertNull(restored.getValidationExecutor());
+            Assert.assertNull(restored.getParallelValidationExecutor());
+            Assert.assertTrue(restored.isActive(restored.getSteps().get(1)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void serialize_validationPending_navigationUnlocked()
+            throws Exception {
+        Wizard wizard = new UIWizard();
+        wizard.setValidationExecutor(new ManualExecutor());
+        wizard.addStep(new AsyncTestStep());
+        wizard.addStep(new TestStep());
+        wizard.next();
+        Assert.assertTrue(wizard.isValidationPending());
+
+        Wizard restored = (Wizard) roundTrip(wizard);
+
+        Assert.assertFalse(restored.isValidationPending());
+        Assert.assertTrue(restored.getNextButton().isEnabled());
+        Assert.assertFalse(restored.getStyleName().contains("pending"));
+    }
+
+    @Test
+    public void serialize_completing_finishAllowedAgain() throws Exception {
+        Wizard wizard = new UIWizard();
+        wizard.setCompletionExecutor(new ManualExecutor());
+        wizard.addCompletionStage(new TestCompletionStage());
+        wizard.addStep(new TestStep());
+        wizard.finish();
+        Assert.assertTrue(wizard.isCompleting());
+
+        Wizard restored = (Wizard) roundTrip(wizard);
+        ManualExecutor executor = new ManualExecutor();
+        restored.setCompletionExecutor(executor);
+
+        Assert.assertFalse(restored.isCompleting());
+        Assert.assertTrue(restored.getFinishButton().isEnabled());
+        restored.finish();
+        Assert.assertTrue(restored.isCompleting());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void restoreState_differentSteps_exceptionThrown() {
+        createWizard(3).restoreState(createWizard(4).getWizardState());
+    }
+
+    /**
+     * Compares the size of the encoded state to the serialized size of the
+     * whole Wizard component.
+     */
+    @Test
+    public void encode_manySteps_muchSmallerThanSerializedWizard()
+            throws IOException {
+        for (int stepCount : new int[] { 10, 100, 1000 }) {
+            Wizard wizard = createWizard(stepCount);
+            wizard.next();
+            WizardState state = wizard.getWizardState();
+
+            int wizardSize = serializedSize(wizard);
+            int stateSize = serializedSize(state);
+            int encodedSize = WizardStateCodec.encode(state).length;
+            int compressedSize = WizardStateCodec.encode(state, true).length;
+            Assert.assertTrue(encodedSize * 10 < wizardSize);
+            Assert.assertTrue(encodedSize < stateSize);
+            if (stepCount >= 100) {
+                // compression pays off once the identifiers repeat
+                Assert.assertTrue(compressedSize < encodedSize);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_hugeStepCount_exceptionThrown() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(1);
+        WizardStateCodec.writeVarInt(bytes, Integer.MAX_VALUE);
+        bytes.write(new byte[8]);
+
+        WizardStateCodec.decode(bytes.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_hugeIdentifierLength_exceptionThrown()
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(1);
+        WizardStateCodec.writeVarInt(bytes, 1);
+        WizardStateCodec.writeVarInt(bytes, 0);
+        WizardStateCodec.writeVarInt(bytes, Integer.MAX_VALUE);
+        bytes.write(new byte[8]);
+
+        WizardStateCodec.decode(bytes.toByteArray());
+    }
+
+    private static Object roundTrip(Object object) throws IOException,
+            ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+    }
+
+    private static int serializedSize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.size();
+    }
+
+}
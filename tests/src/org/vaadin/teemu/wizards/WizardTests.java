@@ -1,9 +1,33 @@
 package org.vaadin.teemu.wizards;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vaadin.teemu.wizards.event.WizardCancelledEvent;
+import org.vaadin.teemu.wizards.event.WizardProgressListener;
+import org.vaadin.teemu.wizards.event.WizardStepSetChangedEvent;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 
 public class WizardTests {
 
@@ -16,6 +40,14 @@ public class WizardTests {
         wizard.addStep(step2, "duplicateId");
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void addStep_sameInstanceTwice_exceptionThrown() {
+        WizardStep step = Mockito.mock(WizardStep.class);
+        Wizard wizard = new Wizard();
+        wizard.addStep(step, "first");
+        wizard.addStep(step, "second");
+    }
+
     /**
      * Test case for a bug reported at <a
      * href="https://vaadin.com/forum/-/message_boards/view_message/1308454"
@@ -41,4 +73,756 @@ public class WizardTests {
         Assert.assertEquals(3, wizard.getSteps().size());
     }
 
+    /**
+     * Step whose instances are all equal to each other.
+     */
+    private static class EqualStep extends Label implements WizardStep {
+
+        public String getCaption() {
+            return "Equal";
+        }
+
+        public Component getContent() {
+            return this;
+        }
+
+        public boolean onAdvance() {
+            return true;
+        }
+
+        public boolean onBack() {
+            return true;
+        }
+
+        public void onActivate() {
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof EqualStep;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void addStep_equalSteps_toldApartByIdentity() {
+        Wizard wizard = new Wizard();
+        WizardStep step1 = new EqualStep();
+        WizardStep step2 = new EqualStep();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+
+        Assert.assertEquals(1, wizard.indexOf(step2));
+        Assert.assertEquals("second", wizard.getId(step2));
+        wizard.next();
+        Assert.assertTrue(wizard.isActive(step2));
+    }
+
+    @Test
+    public void removeStep_middleStep_idsAndIndicesAreUpdated() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        WizardStep step3 = Mockito.mock(WizardStep.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        wizard.addStep(step3, "third");
+        wizard.removeStep("second");
+
+        Assert.assertEquals(1, wizard.indexOf(step3));
+        Assert.assertEquals(-1, wizard.indexOf(step2));
+        Assert.assertEquals("third", wizard.getUriFragmentForStep(step3));
+        Assert.assertNull(wizard.getUriFragmentForStep(step2));
+        Assert.assertTrue(wizard.isLastStep(step3));
+    }
+
+    @Test
+    public void addSteps_multipleSteps_singleStepSetChangedEvent() {
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        Wizard wizard = new Wizard();
+        wizard.addListener(listener);
+        wizard.addSteps(Mockito.mock(WizardStep.class),
+                Mockito.mock(WizardStep.class),
+                Mockito.mock(WizardStep.class));
+
+        Assert.assertEquals(3, wizard.getSteps().size());
+        Mockito.verify(listener, Mockito.times(1)).stepSetChanged(
+                Mockito.any(WizardStepSetChangedEvent.class));
+    }
+
+    @Test
+    public void addStep_factory_stepCreatedWhenReached() {
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(true);
+        WizardStepFactory factory = Mockito.mock(WizardStepFactory.class);
+        Mockito.when(factory.createStep()).thenReturn(
+                Mockito.mock(WizardStep.class));
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(factory, "Second", "second");
+
+        Assert.assertEquals("Second", wizard.getSteps().get(1).getCaption());
+        Mockito.verify(factory, Mockito.never()).createStep();
+
+        wizard.next();
+        Mockito.verify(factory, Mockito.times(1)).createStep();
+    }
+
+    @Test
+    public void contentCache_exceedsSize_leastRecentlyUsedReleased() {
+        ReleasableWizardStep step1 = Mockito.mock(ReleasableWizardStep.class);
+        ReleasableWizardStep step2 = Mockito.mock(ReleasableWizardStep.class);
+        ReleasableWizardStep step3 = Mockito.mock(ReleasableWizardStep.class);
+        for (WizardStep step : new WizardStep[] { step1, step2, step3 }) {
+            Mockito.when(step.getContent()).thenReturn(new Label());
+            Mockito.when(step.onAdvance()).thenReturn(true);
+        }
+
+        Wizard wizard = new Wizard();
+        wizard.setContentCacheSize(2);
+        wizard.addSteps(step1, step2, step3);
+        wizard.next();
+        wizard.next();
+
+        StepContentCache cache = wizard.getContentCache();
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Mockito.verify(step1).releaseContent();
+        Mockito.verify(step2, Mockito.never()).releaseContent();
+    }
+
+    @Test
+    public void contentCache_equalSteps_cachedSeparately() {
+        StepContentCache cache = new StepContentCache(2);
+        WizardStep step1 = new EqualStep();
+        WizardStep step2 = new EqualStep();
+
+        Component content1 = cache.getContent(step1);
+        Component content2 = cache.getContent(step2);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(content1, cache.getContent(step1));
+        Assert.assertSame(content2, cache.getContent(step2));
+        Assert.assertNotSame(content1, content2);
+    }
+
+    @Test
+    public void setContentCacheSize_disabled_currentContentKept() {
+        ReleasableWizardStep step1 = Mockito.mock(ReleasableWizardStep.class);
+        ReleasableWizardStep step2 = Mockito.mock(ReleasableWizardStep.class);
+        for (WizardStep step : new WizardStep[] { step1, step2 }) {
+            Mockito.when(step.getContent()).thenReturn(new Label());
+            Mockito.when(step.onAdvance()).thenReturn(true);
+        }
+
+        Wizard wizard = new Wizard();
+        wizard.setContentCacheSize(2);
+        wizard.addSteps(step1, step2);
+        wizard.next();
+        wizard.setContentCacheSize(0);
+
+        Assert.assertNull(wizard.getContentCache());
+        Mockito.verify(step1).releaseContent();
+        Mockito.verify(step2, Mockito.never()).releaseContent();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_asyncStepWithoutExecutor_resultAwaitedDuringRequest()
+            throws Exception {
+        Future<Boolean> allowed = Mockito.mock(Future.class);
+        Mockito.when(allowed.get()).thenReturn(Boolean.TRUE);
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(allowed);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addSteps(step1, step2);
+        wizard.next();
+
+        Assert.assertTrue(wizard.isActive(step2));
+        Assert.assertFalse(wizard.isValidationPending());
+        Mockito.verify(step1, Mockito.never()).onAdvance();
+    }
+
+    /**
+     * UI running the commands given to {@link #access(Runnable)} immediately
+     * and keeping the exception thrown by the last one.
+     */
+    @SuppressWarnings("serial")
+    private static class AccessRecordingUI extends UI {
+
+        private RuntimeException accessFailure;
+
+        @Override
+        protected void init(VaadinRequest request) {
+        }
+
+        @Override
+        public Future<Void> access(Runnable command) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                accessFailure = e;
+            }
+            return null;
+        }
+    }
+
+    private Wizard createAsyncWizard(final UI ui, ManualExecutor executor) {
+        @SuppressWarnings("serial")
+        Wizard wizard = new Wizard() {
+            @Override
+            public UI getUI() {
+                return ui;
+            }
+        };
+        wizard.setValidationExecutor(executor);
+        return wizard;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_asyncStepRefuses_stepKeptAndButtonsEnabled()
+            throws Exception {
+        Future<Boolean> refused = Mockito.mock(Future.class);
+        Mockito.when(refused.get()).thenReturn(Boolean.FALSE);
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(refused);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        ManualExecutor executor = new ManualExecutor();
+        AccessRecordingUI ui = new AccessRecordingUI();
+        Wizard wizard = createAsyncWizard(ui, executor);
+        wizard.addSteps(step1, step2);
+
+        wizard.next();
+
+        Assert.assertTrue(wizard.isValidationPending());
+        Assert.assertFalse(wizard.getNextButton().isEnabled());
+        Assert.assertFalse(wizard.getCancelButton().isEnabled());
+
+        executor.runAll();
+
+        Assert.assertTrue(wizard.isActive(step1));
+        Assert.assertFalse(wizard.isValidationPending());
+        Assert.assertTrue(wizard.getNextButton().isEnabled());
+        Assert.assertTrue(wizard.getCancelButton().isEnabled());
+        Assert.assertNull(ui.accessFailure);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_asyncStepFails_failureReportedInAccessAndButtonsEnabled()
+            throws Exception {
+        IllegalStateException cause = new IllegalStateException("backend");
+        Future<Boolean> failing = Mockito.mock(Future.class);
+        Mockito.when(failing.get()).thenThrow(new ExecutionException(cause));
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(failing);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        ManualExecutor executor = new ManualExecutor();
+        AccessRecordingUI ui = new AccessRecordingUI();
+        Wizard wizard = createAsyncWizard(ui, executor);
+        wizard.addSteps(step1, step2);
+
+        wizard.next();
+        executor.runAll();
+
+        Assert.assertNotNull(ui.accessFailure);
+        Assert.assertSame(cause, ui.accessFailure.getCause());
+        Assert.assertTrue(wizard.isActive(step1));
+        Assert.assertFalse(wizard.isValidationPending());
+        Assert.assertTrue(wizard.getNextButton().isEnabled());
+        Assert.assertTrue(wizard.getCancelButton().isEnabled());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_validationRejectedByExecutor_notPending()
+            throws Exception {
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(
+                Mockito.mock(Future.class));
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Wizard wizard = createAsyncWizard(new AccessRecordingUI(), null);
+        wizard.setValidationExecutor(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        wizard.addSteps(step1, step2);
+
+        try {
+            wizard.next();
+            Assert.fail("Rejected validation not reported");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        Assert.assertFalse(wizard.isValidationPending());
+        Assert.assertTrue(wizard.getNextButton().isEnabled());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_uiDetachedBeforeResult_notPending() throws Exception {
+        Future<Boolean> allowed = Mockito.mock(Future.class);
+        Mockito.when(allowed.get()).thenReturn(Boolean.TRUE);
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(allowed);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        ManualExecutor executor = new ManualExecutor();
+        @SuppressWarnings("serial")
+        UI detachedUI = new AccessRecordingUI() {
+            @Override
+            public Future<Void> access(Runnable command) {
+                throw new UIDetachedException();
+            }
+        };
+        Wizard wizard = createAsyncWizard(detachedUI, executor);
+        wizard.addSteps(step1, step2);
+
+        wizard.next();
+        executor.runAll();
+
+        Assert.assertFalse(wizard.isValidationPending());
+        wizard.next();
+        Assert.assertTrue(wizard.isValidationPending());
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "serial" })
+    public void next_asyncStepFromFactory_validatedInBackground()
+            throws Exception {
+        Future<Boolean> allowed = Mockito.mock(Future.class);
+        Mockito.when(allowed.get()).thenReturn(Boolean.TRUE);
+        final AsyncWizardStep asyncStep = Mockito.mock(AsyncWizardStep.class);
+        Mockito.when(asyncStep.onAdvanceAsync()).thenReturn(allowed);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createAsyncWizard(new AccessRecordingUI(), executor);
+        wizard.addStep(new WizardStepFactory() {
+            public WizardStep createStep() {
+                return asyncStep;
+            }
+        }, "Async", "async");
+        wizard.addStep(step2, "second");
+
+        wizard.next();
+
+        Assert.assertTrue(wizard.isValidationPending());
+        executor.runAll();
+
+        Assert.assertTrue(wizard.isActive(step2));
+        Mockito.verify(asyncStep, Mockito.never()).onAdvance();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void next_versionChangedWhileValidationPending_validatedAgain()
+            throws Exception {
+        Future<Boolean> allowed = Mockito.mock(Future.class);
+        Mockito.when(allowed.get()).thenReturn(Boolean.TRUE);
+        AsyncWizardStep step1 = Mockito.mock(AsyncWizardStep.class, Mockito
+                .withSettings().extraInterfaces(VersionedWizardStep.class));
+        Mockito.when(step1.onAdvanceAsync()).thenReturn(allowed);
+        Mockito.when(((VersionedWizardStep) step1).getDataVersion())
+                .thenReturn(1L);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Mockito.when(step2.onBack()).thenReturn(true);
+        ManualExecutor executor = new ManualExecutor();
+        Wizard wizard = createAsyncWizard(new AccessRecordingUI(), executor);
+        wizard.addSteps(step1, step2);
+
+        wizard.next();
+        // edited while the validation is pending
+        Mockito.when(((VersionedWizardStep) step1).getDataVersion())
+                .thenReturn(2L);
+        executor.runAll();
+        wizard.back();
+        wizard.next();
+        executor.runAll();
+
+        Assert.assertTrue(wizard.isActive(step2));
+        Mockito.verify(step1, Mockito.times(2)).onAdvanceAsync();
+    }
+
+    @Test
+    public void tryToActivateStep_unchangedVersionedStep_notValidatedAgain() {
+        VersionedWizardStep step1 = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(true);
+        Mockito.when(step1.onBack()).thenReturn(true);
+        VersionedWizardStep step2 = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(step2.onAdvance()).thenReturn(true);
+        Mockito.when(step2.onBack()).thenReturn(true);
+        WizardStep step3 = Mockito.mock(WizardStep.class);
+        Mockito.when(step3.onBack()).thenReturn(true);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        wizard.addStep(step3, "third");
+        wizard.tryToActivateStep("third");
+        wizard.tryToActivateStep("first");
+        wizard.tryToActivateStep("third");
+
+        Assert.assertTrue(wizard.isActive(step3));
+        Mockito.verify(step1, Mockito.times(1)).onAdvance();
+        Mockito.verify(step2, Mockito.times(1)).onAdvance();
+    }
+
+    @Test
+    public void addListener_priorities_higherPriorityNotifiedFirst() {
+        WizardProgressListener low = Mockito.mock(WizardProgressListener.class);
+        WizardProgressListener high = Mockito
+                .mock(WizardProgressListener.class);
+        WizardProgressListener normal = Mockito
+                .mock(WizardProgressListener.class);
+
+        Wizard wizard = new Wizard();
+        wizard.addListener(low, -1);
+        wizard.addListener(high, 1);
+        wizard.addListener(normal);
+        wizard.cancel();
+
+        InOrder inOrder = Mockito.inOrder(high, normal, low);
+        inOrder.verify(high).wizardCancelled(
+                Mockito.any(WizardCancelledEvent.class));
+        inOrder.verify(normal).wizardCancelled(
+                Mockito.any(WizardCancelledEvent.class));
+        inOrder.verify(low).wizardCancelled(
+                Mockito.any(WizardCancelledEvent.class));
+    }
+
+    @Test
+    public void addListener_addedTwice_notifiedOnceAndRemoved() {
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        Wizard wizard = new Wizard();
+        wizard.addListener(listener);
+        wizard.addListener(listener, 10);
+
+        wizard.addStep(Mockito.mock(WizardStep.class));
+        wizard.removeListener(listener);
+        wizard.addStep(Mockito.mock(WizardStep.class));
+
+        Mockito.verify(listener, Mockito.times(1)).stepSetChanged(
+                Mockito.any(WizardStepSetChangedEvent.class));
+    }
+
+    @Test
+    public void constructor_sharedDefinition_stepsCreatedWhenReached() {
+        WizardStepFactory firstFactory = Mockito.mock(WizardStepFactory.class);
+        WizardStepFactory secondFactory = Mockito
+                .mock(WizardStepFactory.class);
+        Mockito.when(firstFactory.createStep()).thenAnswer(
+                new Answer<WizardStep>() {
+                    public WizardStep answer(InvocationOnMock invocation) {
+                        WizardStep step = Mockito.mock(WizardStep.class);
+                        Mockito.when(step.onAdvance()).thenReturn(true);
+                        return step;
+                    }
+                });
+        Mockito.when(secondFactory.createStep()).thenReturn(
+                Mockito.mock(WizardStep.class));
+        WizardDefinition definition = new WizardDefinition.Builder("shared")
+                .addStep("first", "First", firstFactory)
+                .addStep("second", "Second", secondFactory)
+                .setLinkMode(Wizard.LinkMode.PREVIOUS).build();
+
+        Wizard wizard1 = new Wizard(definition);
+        Wizard wizard2 = new Wizard(definition);
+        wizard1.next();
+
+        Assert.assertEquals("second", wizard1.getId(wizard1.currentStep));
+        Assert.assertEquals("first", wizard2.getId(wizard2.currentStep));
+        Assert.assertEquals("Second", wizard2.getSteps().get(1).getCaption());
+        Assert.assertEquals(Wizard.LinkMode.PREVIOUS, wizard2.currentLinkmode);
+        Mockito.verify(firstFactory, Mockito.times(2)).createStep();
+        Mockito.verify(secondFactory, Mockito.times(1)).createStep();
+    }
+
+    @Test
+    public void removeStep_sharedDefinition_otherWizardsUnchanged() {
+        WizardDefinition definition = new WizardDefinition.Builder("removed")
+                .addStep("first", "First", new MockStepFactory())
+                .addStep("second", "Second", new MockStepFactory())
+                .addStep("third", "Third", new MockStepFactory()).build();
+        Wizard wizard1 = new Wizard(definition);
+        Wizard wizard2 = new Wizard(definition);
+        WizardStep third = wizard1.getSteps().get(2);
+
+        wizard1.removeStep("second");
+
+        Assert.assertEquals(2, wizard1.getSteps().size());
+        Assert.assertSame(third, wizard1.getSteps().get(1));
+        Assert.assertEquals("third", wizard1.getId(third));
+        Assert.assertEquals(3, wizard2.getSteps().size());
+        Assert.assertEquals("second", wizard2.getWizardState().getStepId(1));
+    }
+
+    @SuppressWarnings("serial")
+    private static class MockStepFactory implements WizardStepFactory {
+
+        public WizardStep createStep() {
+            return Mockito.mock(WizardStep.class);
+        }
+    }
+
+    @Test
+    public void serialize_lazyStep_restoredUnmaterialized() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new LazyWizardStep("Lazy", new MockStepFactory()));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        LazyWizardStep lazyStep = (LazyWizardStep) in.readObject();
+
+        Assert.assertEquals("Lazy", lazyStep.getCaption());
+        Assert.assertFalse(lazyStep.isMaterialized());
+    }
+
+    @Test
+    public void serialize_definition_resolvedByName() throws Exception {
+        WizardDefinition definition = new WizardDefinition.Builder("serialized")
+                .addStep("first", "First", new MockStepFactory())
+                .addStep("second", "Second", new MockStepFactory())
+                .setLinkMode(Wizard.LinkMode.ALL).build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(definition);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        WizardDefinition restored = (WizardDefinition) in.readObject();
+
+        Assert.assertSame(definition, restored);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_duplicateName_exceptionThrown() {
+        new WizardDefinition.Builder("duplicate").addStep("first", "First",
+                new MockStepFactory()).build();
+        new WizardDefinition.Builder("duplicate").addStep("other", "Other",
+                new MockStepFactory()).build();
+    }
+
+    @Test
+    public void setGuardInput_branchChanged_pathAfterCurrentStepReplaced() {
+        WizardStep start = Mockito.mock(WizardStep.class);
+        WizardStep business = Mockito.mock(WizardStep.class);
+        WizardStep personal = Mockito.mock(WizardStep.class);
+        WizardStep summary = Mockito.mock(WizardStep.class);
+        Mockito.when(start.onAdvance()).thenReturn(true);
+        WizardStepGraph graph = new WizardStepGraph("start");
+        graph.addStep("start", start);
+        graph.addStep("business", business);
+        graph.addStep("personal", personal);
+        graph.addStep("summary", summary);
+        graph.addEdge("start", "business", new StepGuard() {
+            public String[] getInputKeys() {
+                return new String[] { "customerType" };
+            }
+
+            public boolean isOpen(Map<String, Object> inputs) {
+                return "business".equals(inputs.get("customerType"));
+            }
+        });
+        graph.addEdge("start", "personal");
+        graph.addEdge("business", "summary");
+        graph.addEdge("personal", "summary");
+
+        Wizard wizard = new Wizard();
+        wizard.setStepGraph(graph);
+        WizardProgressListener listener = Mockito
+                .mock(WizardProgressListener.class);
+        wizard.addListener(listener);
+        Assert.assertEquals(Arrays.asList(start, personal, summary),
+                wizard.getSteps());
+        Assert.assertTrue(graph.isReachable("start", "summary"));
+
+        graph.setGuardInput("customerType", "business");
+        wizard.next();
+
+        Assert.assertEquals(Arrays.asList(start, business, summary),
+                wizard.getSteps());
+        Assert.assertSame(business, wizard.currentStep);
+        Mockito.verify(listener, Mockito.times(1)).stepSetChanged(
+                Mockito.any(WizardStepSetChangedEvent.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addStep_graphStepReusedWithAnotherId_exceptionThrown() {
+        WizardStep start = Mockito.mock(WizardStep.class);
+        WizardStep shared = Mockito.mock(WizardStep.class);
+        WizardStepGraph graph = new WizardStepGraph("start");
+        graph.addStep("start", start);
+        graph.addStep("business", shared);
+        graph.addStep("personal", shared);
+    }
+
+    @Test
+    public void replaceSteps_furthestStepRemoved_currentStepIsFurthest() {
+        WizardStep first = Mockito.mock(WizardStep.class);
+        WizardStep second = Mockito.mock(WizardStep.class);
+        WizardStep third = Mockito.mock(WizardStep.class);
+        Mockito.when(first.onAdvance()).thenReturn(true);
+        Mockito.when(second.onAdvance()).thenReturn(true);
+        Mockito.when(second.onBack()).thenReturn(true);
+        Mockito.when(third.onBack()).thenReturn(true);
+        Wizard wizard = new Wizard();
+        wizard.addStep(first, "first");
+        wizard.addStep(second, "second");
+        wizard.addStep(third, "third");
+        wizard.next();
+        wizard.next();
+        wizard.back();
+
+        Map<String, WizardStep> replacement = new LinkedHashMap<String, WizardStep>();
+        replacement.put("other", Mockito.mock(WizardStep.class));
+        wizard.replaceSteps(replacement);
+
+        Assert.assertSame(second, wizard.lastCompletedStep);
+    }
+
+    @Test
+    public void setGuardInput_furthestStepRemoved_currentStepIsFurthest() {
+        WizardStep start = Mockito.mock(WizardStep.class);
+        WizardStep personal = Mockito.mock(WizardStep.class);
+        WizardStep business = Mockito.mock(WizardStep.class);
+        Mockito.when(start.onAdvance()).thenReturn(true);
+        Mockito.when(personal.onBack()).thenReturn(true);
+        WizardStepGraph graph = new WizardStepGraph("start");
+        graph.addStep("start", start);
+        graph.addStep("personal", personal);
+        graph.addStep("business", business);
+        graph.addEdge("start", "business", new StepGuard() {
+            public String[] getInputKeys() {
+                return new String[] { "customerType" };
+            }
+
+            public boolean isOpen(Map<String, Object> inputs) {
+                return "business".equals(inputs.get("customerType"));
+            }
+        });
+        graph.addEdge("start", "personal");
+        Wizard wizard = new Wizard();
+        wizard.setStepGraph(graph);
+        wizard.next();
+        wizard.back();
+
+        graph.setGuardInput("customerType", "business");
+
+        Assert.assertEquals(Arrays.asList(start, business), wizard.getSteps());
+        Assert.assertSame(start, wizard.lastCompletedStep);
+    }
+
+    @Test
+    public void setStepDependencies_upstreamChanged_onlyDependentStepInvalidated() {
+        VersionedWizardStep address = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(address.onAdvance()).thenReturn(true);
+        Mockito.when(address.onBack()).thenReturn(true);
+        Mockito.when(address.getDataVersion()).thenReturn(1L);
+        VersionedWizardStep shipping = Mockito
+                .mock(VersionedWizardStep.class);
+        Mockito.when(shipping.onAdvance()).thenReturn(true);
+        Mockito.when(shipping.onBack()).thenReturn(true);
+        VersionedWizardStep payment = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(payment.onAdvance()).thenReturn(true);
+        Mockito.when(payment.onBack()).thenReturn(true);
+        WizardStep summary = Mockito.mock(WizardStep.class);
+        Mockito.when(summary.onBack()).thenReturn(true);
+
+        Wizard wizard = new Wizard();
+        wizard.addStep(address, "address");
+        wizard.addStep(shipping, "shipping");
+        wizard.addStep(payment, "payment");
+        wizard.addStep(summary, "summary");
+        wizard.setStepDependencies("shipping", "address");
+        wizard.tryToActivateStep("summary");
+
+        Mockito.when(address.getDataVersion()).thenReturn(2L);
+
+        Assert.assertTrue(wizard.isCompleted(address));
+        Assert.assertFalse(wizard.isCompleted(shipping));
+        Assert.assertTrue(wizard.isCompleted(payment));
+
+        wizard.tryToActivateStep("address");
+        wizard.tryToActivateStep("summary");
+
+        Assert.assertTrue(wizard.isCompleted(shipping));
+        Mockito.verify(shipping, Mockito.times(2)).onAdvance();
+        Mockito.verify(payment, Mockito.times(1)).onAdvance();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void removeStep_staleStepBeforeActive_exceptionThrown() {
+        VersionedWizardStep address = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(address.onAdvance()).thenReturn(true);
+        Mockito.when(address.getDataVersion()).thenReturn(1L);
+        WizardStep shipping = Mockito.mock(WizardStep.class);
+        Mockito.when(shipping.onAdvance()).thenReturn(true);
+        Wizard wizard = new Wizard();
+        wizard.addStep(address, "address");
+        wizard.addStep(shipping, "shipping");
+        wizard.addStep(Mockito.mock(WizardStep.class), "summary");
+        wizard.setStepDependencies("shipping", "address");
+        wizard.tryToActivateStep("summary");
+        Mockito.when(address.getDataVersion()).thenReturn(2L);
+        Assert.assertTrue(wizard.isStale(shipping));
+
+        wizard.removeStep(shipping);
+    }
+
+    @Test
+    public void setStepDependencies_stepOnOtherBranch_keptAcrossBranchSwitches() {
+        VersionedWizardStep start = Mockito.mock(VersionedWizardStep.class);
+        Mockito.when(start.onAdvance()).thenReturn(true);
+        Mockito.when(start.getDataVersion()).thenReturn(1L);
+        WizardStep personal = Mockito.mock(WizardStep.class);
+        WizardStep business = Mockito.mock(WizardStep.class);
+        Mockito.when(business.onAdvance()).thenReturn(true);
+        WizardStep end = Mockito.mock(WizardStep.class);
+        WizardStepGraph graph = new WizardStepGraph("start");
+        graph.addStep("start", start);
+        graph.addStep("personal", personal);
+        graph.addStep("business", business);
+        graph.addStep("end", end);
+        graph.addEdge("start", "business", new StepGuard() {
+            public String[] getInputKeys() {
+                return new String[] { "customerType" };
+            }
+
+            public boolean isOpen(Map<String, Object> inputs) {
+                return "business".equals(inputs.get("customerType"));
+            }
+        });
+        graph.addEdge("start", "personal");
+        graph.addEdge("personal", "end");
+        graph.addEdge("business", "end");
+        Wizard wizard = new Wizard();
+        wizard.setStepGraph(graph);
+
+        wizard.setStepDependencies("business", "start");
+        graph.setGuardInput("customerType", "business");
+        graph.setGuardInput("customerType", "personal");
+        graph.setGuardInput("customerType", "business");
+        wizard.tryToActivateStep("end");
+        Mockito.when(start.getDataVersion()).thenReturn(2L);
+
+        Assert.assertTrue(Arrays.equals(new String[] { "start" },
+                wizard.getStepDependencies("business")));
+        Assert.assertTrue(wizard.isStale(business));
+    }
+
 }
@@ -0,0 +1,55 @@
+package org.vaadin.teemu.wizards.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.vaadin.teemu.wizards.Wizard;
+import org.vaadin.teemu.wizards.WizardStep;
+import org.vaadin.teemu.wizards.metrics.StepMetrics.Hook;
+
+public class WizardMetricsTests {
+
+    @Test
+    public void percentile_recordedDurations_upperBoundOfBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(1023, histogram.getPercentileNanos(50));
+        Assert.assertEquals(1023, histogram.getPercentileNanos(99));
+        Assert.assertEquals(1000000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void next_rejectedAndAllowed_countersPerStepId() {
+        WizardMetrics metrics = WizardMetrics.forName("rejections");
+        WizardStep step1 = Mockito.mock(WizardStep.class);
+        WizardStep step2 = Mockito.mock(WizardStep.class);
+        Mockito.when(step1.onAdvance()).thenReturn(false, true);
+
+        Wizard wizard = new Wizard();
+        wizard.setMetrics(metrics);
+        wizard.addStep(step1, "first");
+        wizard.addStep(step2, "second");
+        wizard.next();
+        wizard.next();
+        wizard.cancel();
+
+        StepMetrics first = metrics.getStepMetrics("first");
+        Assert.assertEquals(1, first.getTransitionCount());
+        Assert.assertEquals(1, first.getRejectionCount());
+        Assert.assertEquals(2, first.getLatency(Hook.ON_ADVANCE).getCount());
+        Assert.assertEquals(1, first.getDwellTime().getCount());
+        Assert.assertEquals(1, metrics.getStepMetrics("second")
+                .getTransitionCount());
+        Assert.assertEquals(1, metrics.getStepMetrics("second").getDwellTime()
+                .getCount());
+        Assert.assertEquals(1, metrics.getCancelledCount());
+        Assert.assertSame(metrics, WizardMetrics.forName("rejections"));
+    }
+
+}
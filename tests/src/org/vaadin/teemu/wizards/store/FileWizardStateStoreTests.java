@@ -0,0 +1,187 @@
+package org.vaadin.teemu.wizards.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.teemu.wizards.Wizard.LinkMode;
+import org.vaadin.teemu.wizards.WizardState;
+
+public class FileWizardStateStoreTests {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("wizard-states", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static WizardState state(int currentIndex) {
+        String[] ids = new String[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "wizard-step-" + (i + 1);
+        }
+        return new WizardState(ids, currentIndex, currentIndex - 1,
+                LinkMode.PREVIOUS, false);
+    }
+
+    @Test
+    public void load_afterReopen_latestStateReturned() throws IOException {
+        FileWizardStateStore store = new FileWizardStateStore(directory);
+        store.save("user1", state(1));
+        store.save("user1", state(2));
+        store.save("user2", state(3));
+        store.remove("user2");
+        store.close();
+
+        store = new FileWizardStateStore(directory);
+        Assert.assertEquals(state(2), store.load("user1"));
+        Assert.assertNull(store.load("user2"));
+        store.close();
+    }
+
+    private interface TailDamage {
+        void apply(RandomAccessFile segment, long intactLength)
+                throws IOException;
+    }
+
+    /**
+     * Saves two states for the same key, damages the last record with the
+     * given action and checks that the store recovers the first state and
+     * keeps working after reopening.
+     */
+    private void assertRecoversFromDamagedTail(TailDamage damage)
+            throws IOException {
+        FileWizardStateStore store = new FileWizardStateStore(directory);
+        store.save("user1", state(1));
+        store.save("user2", state(2));
+        long intactLength = new File(directory, "segment-0.log").length();
+        store.save("user2", state(3));
+        store.close();
+
+        RandomAccessFile segment = new RandomAccessFile(new File(directory,
+                "segment-0.log"), "rw");
+        try {
+            damage.apply(segment, intactLength);
+        } finally {
+            segment.close();
+        }
+
+        store = new FileWizardStateStore(directory);
+        Assert.assertEquals(intactLength,
+                new File(directory, "segment-0.log").length());
+        Assert.assertEquals(state(1), store.load("user1"));
+        Assert.assertEquals(state(2), store.load("user2"));
+        store.save("user2", state(4));
+        store.close();
+
+        store = new FileWizardStateStore(directory);
+        Assert.assertEquals(state(4), store.load("user2"));
+        store.close();
+    }
+
+    @Test
+    public void open_tornLastRecord_discardedAndPreviousStateLoaded()
+            throws IOException {
+        assertRecoversFromDamagedTail(new TailDamage() {
+            public void apply(RandomAccessFile segment, long intactLength)
+                    throws IOException {
+                segment.setLength(intactLength
+                        + (segment.length() - intactLength) / 2);
+            }
+        });
+    }
+
+    @Test
+    public void open_corruptLastRecord_discardedAndPreviousStateLoaded()
+            throws IOException {
+        assertRecoversFromDamagedTail(new TailDamage() {
+            public void apply(RandomAccessFile segment, long intactLength)
+                    throws IOException {
+                long last = segment.length() - 1;
+                segment.seek(last);
+                int b = segment.read();
+                segment.seek(last);
+                segment.write(b ^ 0xff);
+            }
+        });
+    }
+
+    @Test
+    public void compact_manyOverwrites_latestStatesKept() throws IOException {
+        FileWizardStateStore store = new FileWizardStateStore(directory, 4096,
+                false);
+        for (int i = 0; i < 1000; i++) {
+            store.save("user" + (i % 10), state(i % 10));
+        }
+        store.compact();
+        store.close();
+
+        store = new FileWizardStateStore(directory);
+        Assert.assertEquals(10, store.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(state(i), store.load("user" + i));
+        }
+        store.close();
+    }
+
+    @Test
+    public void save_concurrentWriters_allStatesStored() throws Exception {
+        final FileWizardStateStore store = new FileWizardStateStore(
+                directory, 64 * 1024, false);
+        final int threads = 8;
+        final int writes = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < writes; i++) {
+                            String key = "user-" + thread + "-" + (i % 50);
+                            store.save(key, state(i % 10));
+                            Assert.assertNotNull(store.load(key));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        store.close();
+
+        FileWizardStateStore reopened = new FileWizardStateStore(directory);
+        Assert.assertEquals(threads * 50, reopened.size());
+        Assert.assertEquals(state((writes - 1) % 10),
+                reopened.load("user-0-" + ((writes - 1) % 50)));
+        reopened.close();
+    }
+
+}